@@ -0,0 +1,344 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import coregame.Board;
+import coregame.MoveList;
+import coregame.PositionStore;
+import testdata.Data;
+
+/*
+    Benchmarks of coregame.Board, run the JMH way without needing JMH : every benchmark is run in its own JVM (a fork),
+    warmed up, then measured over several timed iterations. Prints the throughput and the allocation rate.
+
+    java bench/Bench [filter] [--forks n] [--warmup n] [--iterations n] [--time ms]
+
+    filter only keeps the benchmarks whose name contains it ("perft", "loadFen.3"...)
+*/
+public final class Bench
+{
+    private static int forks = 1, warmupIterations = 3, iterations = 5, iterationTime = 1000;
+
+    private static volatile long sink; // every result ends here so the JIT can't throw the work away
+
+    private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /*
+        name -> setup, the setup returns one operation of the benchmark
+    */
+    private static Map<String, Supplier<LongSupplier>> benchmarks()
+    {
+        Map<String, Supplier<LongSupplier>> benchmarks = new LinkedHashMap<>();
+
+        for (int p = 0; p < Data.positions.length; p++)
+        {
+            String fen = Data.positions[p];
+            int depth = perftDepth(p);
+            long expectedNodes = Data.nodes[p][depth];
+
+            benchmarks.put("perft." + p, () -> {
+                Board board = new Board(fen);
+                return () -> {
+                    long nodes = board.perft(depth);
+                    if (nodes != expectedNodes) throw new IllegalStateException("perft is wrong on " + fen);
+                    return nodes;
+                };
+            });
+
+            benchmarks.put("perftBulk." + p, () -> {
+                Board board = new Board(fen);
+                return () -> {
+                    long nodes = board.perft(depth, null, Board.PerftMode.BULK);
+                    if (nodes != expectedNodes) throw new IllegalStateException("bulk perft is wrong on " + fen);
+                    return nodes;
+                };
+            });
+
+            benchmarks.put("legalMoves." + p, () -> {
+                Board board = new Board(fen);
+                MoveList moves = new MoveList();
+                return () -> {
+                    board.generateLegalMoves(moves);
+                    return moves.size();
+                };
+            });
+
+            benchmarks.put("gameState." + p, () -> {
+                Board board = new Board(fen);
+                return () -> board.gameState().ordinal();
+            });
+
+            benchmarks.put("makeUnmake." + p, () -> {
+                Board board = new Board(fen);
+                MoveList moves = new MoveList();
+                board.generateLegalMoves(moves);
+                int[] next = { 0 };
+                return () -> {
+                    board.makeMove(moves.get(next[0]));
+                    long key = board.getZobristKey();
+                    board.unMakeMove();
+                    next[0] = (next[0] + 1) % moves.size();
+                    return key;
+                };
+            });
+
+            benchmarks.put("isSquareAttacked." + p, () -> {
+                Board board = new Board(fen);
+                int[] square = { 0 };
+                return () -> {
+                    square[0] = (square[0] + 1) & 63;
+                    return board.isSquareAttacked(square[0], !board.whitePlaying()) ? 1 : 0;
+                };
+            });
+
+            benchmarks.put("getFen." + p, () -> {
+                Board board = new Board(fen);
+                return () -> board.getFen().length();
+            });
+
+            benchmarks.put("appendFen." + p, () -> {
+                Board board = new Board(fen);
+                StringBuilder builder = new StringBuilder(128);
+                return () -> {
+                    builder.setLength(0);
+                    return board.appendFen(builder).length();
+                };
+            });
+
+            benchmarks.put("loadFen." + p, () -> {
+                Board board = new Board(fen);
+                return () -> {
+                    board.loadFen(fen);
+                    return board.getZobristKey();
+                };
+            });
+
+            benchmarks.put("loadEncoded." + p, () -> {
+                Board board = new Board(fen);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(Board.ENCODED_SIZE);
+                board.encode(buffer, 0);
+                return () -> {
+                    board.loadEncoded(buffer, 0);
+                    return board.getZobristKey();
+                };
+            });
+        }
+
+        // positions where the game is over or nearly so, gameState has to look at every piece before answering
+        String[][] finished = {
+            { "mate", "6rk/5Npp/8/8/8/8/5PPP/6K1 b - - 0 1" },                    // smothered mate
+            { "backRankMate", "R5k1/5ppp/8/8/8/8/5PPP/6K1 b - - 0 1" },
+            { "stalemate", "7k/5Q2/6K1/8/8/8/8/8 b - - 0 1" },
+            { "scholarsMate", "r1bqkb1r/pppp1Qpp/2n2n2/4p3/2B1P3/8/PPPP1PPP/RNB1K1NR b KQkq - 0 4" }
+        };
+
+        for (String[] position : finished)
+        {
+            benchmarks.put("gameState." + position[0], () -> {
+                Board board = new Board(position[1]);
+                return () -> board.gameState().ordinal();
+            });
+
+            // the same answer out of a full move list, what checkMate() and stalemate() did before
+            benchmarks.put("legalMoves." + position[0], () -> {
+                Board board = new Board(position[1]);
+                MoveList moves = new MoveList();
+                return () -> {
+                    board.generateLegalMoves(moves);
+                    return moves.isEmpty() && board.inCheck() ? 1 : 0;
+                };
+            });
+        }
+
+        // random access in a memory mapped store of a million positions (ops/s = positions/s)
+        benchmarks.put("positionStore", () -> {
+            try {
+                Path file = Files.createTempFile("positions", ".bin");
+                file.toFile().deleteOnExit();
+
+                try (PositionStore.Writer writer = new PositionStore.Writer(file)) {
+                    for (int i = 0; i < 1_000_000; i++)
+                        writer.add(new Board(Data.positions[i % Data.positions.length]));
+                }
+
+                PositionStore store = new PositionStore(file);
+                Board board = new Board(Data.positions[0]);
+                long[] index = { 0 };
+                return () -> {
+                    index[0] = (index[0] + 7919) % store.size(); // jumps around the file
+                    store.load(index[0], board);
+                    return board.getZobristKey();
+                };
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        // bulk loading : every position one after the other out of one buffer, like the lines of a file (ops/s = positions/s)
+        benchmarks.put("loadFenBulk", () -> {
+            StringBuilder file = new StringBuilder();
+            int[] lineStarts = new int[Data.positions.length + 1];
+
+            for (int p = 0; p < Data.positions.length; p++) {
+                lineStarts[p] = file.length();
+                file.append(Data.positions[p]).append('\n');
+            }
+            lineStarts[Data.positions.length] = file.length();
+
+            Board board = new Board(Data.positions[0]);
+            int[] line = { 0 };
+            return () -> {
+                int p = line[0];
+                board.loadFen(file, lineStarts[p], lineStarts[p + 1] - 1);
+                line[0] = (p + 1) % Data.positions.length;
+                return board.getZobristKey();
+            };
+        });
+
+        return benchmarks;
+    }
+
+    /*
+        Deepest depth of the position that stays under half a million nodes, so one operation stays well under an iteration
+    */
+    private static int perftDepth(int p)
+    {
+        int depth = 1;
+
+        while (depth + 1 < Data.nodes[p].length && Data.nodes[p][depth + 1] <= 500_000)
+            depth++;
+
+        return depth;
+    }
+
+    /*
+        Child JVM side : warms up and measures one benchmark, one "iteration <ops/s> <bytes/op>" line per measured iteration
+    */
+    private static void measure(String name)
+    {
+        LongSupplier operation = benchmarks().get(name).get();
+        int batch = 1;
+        long result = 0;
+
+        // a batch long enough (1ms at least) that reading the clock between two of them doesn't weigh on the result
+        for (long elapsed = 0; elapsed < 1_000_000 && batch < 1 << 30;)
+        {
+            long beginning = System.nanoTime();
+
+            for (int j = 0; j < batch; j++)
+                result += operation.getAsLong();
+
+            elapsed = System.nanoTime() - beginning;
+            if (elapsed < 1_000_000) batch *= 2;
+        }
+
+        for (int i = 0; i < warmupIterations + iterations; i++)
+        {
+            long operations = 0;
+            long allocated = threads.getCurrentThreadAllocatedBytes();
+            long beginning = System.nanoTime(), elapsed;
+
+            do {
+                for (int j = 0; j < batch; j++)
+                    result += operation.getAsLong();
+
+                operations += batch;
+                elapsed = System.nanoTime() - beginning;
+            } while (elapsed < iterationTime * 1_000_000L);
+
+            allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+            sink += result;
+
+            if (i >= warmupIterations)
+                System.out.printf(Locale.ROOT, "iteration %f %f%n", operations * 1e9 / elapsed, allocated / (double) operations);
+        }
+    }
+
+    /*
+        Parent side : one fresh JVM per fork, returns every measured iteration as { ops/s, bytes/op }
+    */
+    private static List<double[]> fork(String name) throws IOException, InterruptedException
+    {
+        List<double[]> results = new ArrayList<>();
+
+        for (int f = 0; f < forks; f++)
+        {
+            Process process = new ProcessBuilder(
+                System.getProperty("java.home") + "/bin/java", "-cp", System.getProperty("java.class.path"), Bench.class.getName(),
+                "--run", name, "--warmup", "" + warmupIterations, "--iterations", "" + iterations, "--time", "" + iterationTime
+            ).redirectErrorStream(true).start();
+
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream())))
+            {
+                String line;
+                while ((line = output.readLine()) != null)
+                {
+                    String[] parsed = line.split(" ");
+                    if (parsed[0].equals("iteration"))
+                        results.add(new double[]{ Double.parseDouble(parsed[1]), Double.parseDouble(parsed[2]) });
+                    else
+                        System.out.println(line); // the fork crashed or printed something, let's see it
+                }
+            }
+
+            if (process.waitFor() != 0) throw new IllegalStateException(name + " failed");
+        }
+
+        return results;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        String filter = "", run = null;
+
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i]) {
+                case "--forks" -> forks = Integer.parseInt(args[++i]);
+                case "--warmup" -> warmupIterations = Integer.parseInt(args[++i]);
+                case "--iterations" -> iterations = Integer.parseInt(args[++i]);
+                case "--time" -> iterationTime = Integer.parseInt(args[++i]);
+                case "--run" -> run = args[++i];
+                default -> filter = args[i];
+            }
+        }
+
+        if (run != null) {
+            measure(run);
+            return;
+        }
+
+        System.out.printf("%-22s %5s %16s %14s %12s %12s%n", "Benchmark", "Cnt", "Score (ops/s)", "stddev", "alloc MB/s", "alloc B/op");
+
+        for (String name : benchmarks().keySet())
+        {
+            if (!name.contains(filter)) continue;
+
+            List<double[]> results = fork(name);
+
+            double score = 0, bytes = 0, variance = 0;
+            for (double[] result : results) {
+                score += result[0] / results.size();
+                bytes += result[1] / results.size();
+            }
+            for (double[] result : results)
+                variance += (result[0] - score) * (result[0] - score) / results.size();
+
+            System.out.printf("%-22s %5d %16.3f %14.3f %12.3f %12.1f%n", name, results.size(), score, Math.sqrt(variance), score * bytes / (1 << 20), bytes);
+        }
+    }
+}
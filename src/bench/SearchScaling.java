@@ -0,0 +1,85 @@
+package bench;
+
+import java.util.Locale;
+
+import coregame.Board;
+import coregame.search.Limits;
+import coregame.search.ParallelSearch;
+import coregame.search.SearchInfo;
+import coregame.search.TranspositionTable;
+
+import testdata.Data;
+
+/*
+    How the parallel search scales : every position of testdata.Data is searched to the same depth with 1, 2, 4... threads,
+    on an empty table each time. Prints the time to depth and its speedup, and the nodes per second and their scaling,
+    both compared to one thread.
+
+    java bench/SearchScaling [--depth d] [--threads 1,2,4,8,16,32] [--hash MB]
+*/
+public final class SearchScaling
+{
+    private SearchScaling() {}
+
+    public static void main(String[] args)
+    {
+        int depth = 7, hash = 64;
+        String threadCounts = "1,2,4,8,16,32";
+
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i]) {
+                case "--depth" -> depth = Integer.parseInt(args[++i]);
+                case "--threads" -> threadCounts = args[++i];
+                case "--hash" -> hash = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        TranspositionTable table = new TranspositionTable(hash);
+        double baseTime = 0, baseNps = 0;
+
+        run(1, depth, table); // warms the JIT up so the first line isn't the slowest for nothing
+
+        System.out.printf("%7s %12s %14s %12s %10s %10s%n", "threads", "time (ms)", "nodes", "nodes/s", "speedup", "nps x");
+
+        for (String count : threadCounts.split(","))
+        {
+            int threads = Integer.parseInt(count.trim());
+            long[] result = run(threads, depth, table);
+
+            double time = result[0] / 1e6, nps = result[1] * 1e9 / Math.max(1, result[0]);
+
+            if (baseTime == 0) {
+                baseTime = time;
+                baseNps = nps;
+            }
+
+            System.out.printf(Locale.ROOT, "%7d %12.1f %14d %12.0f %10.2f %10.2f%n", threads, time, result[1], nps, baseTime / time, nps / baseNps);
+        }
+    }
+
+    /*
+        Every position to depth, returns { total nanoseconds, total nodes }
+    */
+    private static long[] run(int threads, int depth, TranspositionTable table)
+    {
+        long time = 0, nodes = 0;
+
+        try (ParallelSearch search = new ParallelSearch(threads, table))
+        {
+            for (String fen : Data.positions)
+            {
+                table.clear();
+
+                long beginning = System.nanoTime();
+                SearchInfo info = search.search(new Board(fen), Limits.depth(depth), null);
+                time += System.nanoTime() - beginning;
+
+                if (info != null) nodes += info.getNodes();
+            }
+        }
+
+        return new long[]{ time, nodes };
+    }
+}
@@ -0,0 +1,240 @@
+package coregame;
+
+/*
+    Precomputed attack tables, a bitboard is a long where bit n is set if Coordinate n (a8 = 0, h1 = 63) is concerned
+*/
+public final class Bitboards
+{
+    private static final long[]
+        KNIGHT_ATTACKS = new long[64],
+        KING_ATTACKS = new long[64],
+        WHITE_PAWN_ATTACKS = new long[64],
+        BLACK_PAWN_ATTACKS = new long[64];
+
+    // magic bitboards : (occupancy & mask) * magic >>> shift gives the index of the attacks in the table
+    private static final long[]
+        ROOK_MASKS = new long[64],
+        BISHOP_MASKS = new long[64],
+        ROOK_MAGICS = new long[64],
+        BISHOP_MAGICS = new long[64];
+
+    private static final int[]
+        ROOK_SHIFTS = new int[64],
+        BISHOP_SHIFTS = new int[64];
+
+    private static final long[][]
+        ROOK_TABLE = new long[64][],
+        BISHOP_TABLE = new long[64][],
+        BETWEEN = new long[64][64],
+        LINE = new long[64][64];
+
+    private static final int[][]
+        KNIGHT_STEPS = { {-2, -1}, {-2, 1}, {-1, -2}, {-1, 2}, {1, -2}, {1, 2}, {2, -1}, {2, 1} },
+        KING_STEPS = { {-1, -1}, {-1, 0}, {-1, 1}, {0, -1}, {0, 1}, {1, -1}, {1, 0}, {1, 1} },
+        ROOK_DIRECTIONS = { {-1, 0}, {1, 0}, {0, -1}, {0, 1} },
+        BISHOP_DIRECTIONS = { {-1, -1}, {-1, 1}, {1, -1}, {1, 1} };
+
+    private static long seed = 0x9E3779B97F4A7C15L; // fixed, so the magics are the same on every run
+
+    private Bitboards() {}
+
+    public static long knightAttacks(int square) {
+        return KNIGHT_ATTACKS[square];
+    }
+
+    public static long kingAttacks(int square) {
+        return KING_ATTACKS[square];
+    }
+
+    /*
+        Squares a pawn of the given color standing on square attacks
+    */
+    public static long pawnAttacks(boolean white, int square) {
+        return white ? WHITE_PAWN_ATTACKS[square] : BLACK_PAWN_ATTACKS[square];
+    }
+
+    public static long rookAttacks(int square, long occupied) {
+        return ROOK_TABLE[square][(int) (((occupied & ROOK_MASKS[square]) * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square])];
+    }
+
+    public static long bishopAttacks(int square, long occupied) {
+        return BISHOP_TABLE[square][(int) (((occupied & BISHOP_MASKS[square]) * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square])];
+    }
+
+    public static long queenAttacks(int square, long occupied) {
+        return rookAttacks(square, occupied) | bishopAttacks(square, occupied);
+    }
+
+    /*
+        Squares strictly between two squares on the same rank, file or diagonal, empty if they're not aligned
+    */
+    public static long between(int square1, int square2) {
+        return BETWEEN[square1][square2];
+    }
+
+    /*
+        The whole rank, file or diagonal going through both squares (edge to edge), empty if they're not aligned
+    */
+    public static long line(int square1, int square2) {
+        return LINE[square1][square2];
+    }
+
+    /*
+        Every square reachable with single steps (knight, king)
+    */
+    private static long stepAttacks(int square, int[][] steps)
+    {
+        long attacks = 0;
+
+        for (int[] step : steps)
+        {
+            int rank = square / 8 + step[0], file = square % 8 + step[1];
+            if (rank >= 0 && rank < 8 && file >= 0 && file < 8) attacks |= 1L << (rank * 8 + file);
+        }
+
+        return attacks;
+    }
+
+    /*
+        Walks every ray until it hits a piece (included) or the edge, only used to fill the tables
+    */
+    private static long slidingAttacks(int square, long occupied, int[][] directions)
+    {
+        long attacks = 0;
+
+        for (int[] direction : directions)
+        {
+            int rank = square / 8 + direction[0], file = square % 8 + direction[1];
+
+            while (rank >= 0 && rank < 8 && file >= 0 && file < 8)
+            {
+                long bit = 1L << (rank * 8 + file);
+                attacks |= bit;
+                if ((occupied & bit) != 0) break;
+                rank += direction[0];
+                file += direction[1];
+            }
+        }
+
+        return attacks;
+    }
+
+    /*
+        Squares whose occupancy matters for a slider : every ray square except the last one before the edge
+    */
+    private static long relevantMask(int square, int[][] directions)
+    {
+        long mask = 0;
+
+        for (int[] direction : directions)
+        {
+            int rank = square / 8 + direction[0], file = square % 8 + direction[1];
+
+            while (rank + direction[0] >= 0 && rank + direction[0] < 8 && file + direction[1] >= 0 && file + direction[1] < 8)
+            {
+                mask |= 1L << (rank * 8 + file);
+                rank += direction[0];
+                file += direction[1];
+            }
+        }
+
+        return mask;
+    }
+
+    private static long random()
+    {
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return seed;
+    }
+
+    /*
+        Tries sparse random numbers until one maps every occupancy of the mask to a slot without destructive collision
+    */
+    private static long findMagic(int square, long mask, int[][] directions, long[] table)
+    {
+        int bits = Long.bitCount(mask);
+        int size = 1 << bits;
+
+        long[] occupancies = new long[size], attacks = new long[size], used = new long[size];
+        int[] attempts = new int[size];
+
+        long subset = 0;
+        int count = 0;
+
+        do { // enumerates every subset of the mask
+            occupancies[count] = subset;
+            attacks[count] = slidingAttacks(square, subset, directions);
+            count++;
+            subset = (subset - mask) & mask;
+        } while (subset != 0);
+
+        for (int attempt = 1; ; attempt++)
+        {
+            long magic = random() & random() & random();
+
+            if (Long.bitCount((mask * magic) & 0xFF00000000000000L) < 6) continue;
+
+            boolean valid = true;
+
+            for (int i = 0; i < size && valid; i++)
+            {
+                int index = (int) ((occupancies[i] * magic) >>> (64 - bits));
+
+                if (attempts[index] != attempt) {
+                    attempts[index] = attempt;
+                    used[index] = attacks[i];
+                } else if (used[index] != attacks[i]) {
+                    valid = false;
+                }
+            }
+
+            if (valid)
+            {
+                System.arraycopy(used, 0, table, 0, size);
+                return magic;
+            }
+        }
+    }
+
+    static
+    {
+        for (int square = 0; square < 64; square++)
+        {
+            KNIGHT_ATTACKS[square] = stepAttacks(square, KNIGHT_STEPS);
+            KING_ATTACKS[square] = stepAttacks(square, KING_STEPS);
+            WHITE_PAWN_ATTACKS[square] = stepAttacks(square, new int[][]{ {-1, -1}, {-1, 1} }); // white goes up the board
+            BLACK_PAWN_ATTACKS[square] = stepAttacks(square, new int[][]{ {1, -1}, {1, 1} });
+
+            ROOK_MASKS[square] = relevantMask(square, ROOK_DIRECTIONS);
+            ROOK_SHIFTS[square] = 64 - Long.bitCount(ROOK_MASKS[square]);
+            ROOK_TABLE[square] = new long[1 << Long.bitCount(ROOK_MASKS[square])];
+            ROOK_MAGICS[square] = findMagic(square, ROOK_MASKS[square], ROOK_DIRECTIONS, ROOK_TABLE[square]);
+
+            BISHOP_MASKS[square] = relevantMask(square, BISHOP_DIRECTIONS);
+            BISHOP_SHIFTS[square] = 64 - Long.bitCount(BISHOP_MASKS[square]);
+            BISHOP_TABLE[square] = new long[1 << Long.bitCount(BISHOP_MASKS[square])];
+            BISHOP_MAGICS[square] = findMagic(square, BISHOP_MASKS[square], BISHOP_DIRECTIONS, BISHOP_TABLE[square]);
+
+            for (int[][] directions : new int[][][]{ ROOK_DIRECTIONS, BISHOP_DIRECTIONS })
+            {
+                for (int[] direction : directions)
+                {
+                    long line = slidingAttacks(square, 0, new int[][]{ direction }) | slidingAttacks(square, 0, new int[][]{ {-direction[0], -direction[1]} }) | 1L << square;
+                    long path = 0;
+                    int rank = square / 8 + direction[0], file = square % 8 + direction[1];
+
+                    while (rank >= 0 && rank < 8 && file >= 0 && file < 8)
+                    {
+                        BETWEEN[square][rank * 8 + file] = path;
+                        LINE[square][rank * 8 + file] = line;
+                        path |= 1L << (rank * 8 + file);
+                        rank += direction[0];
+                        file += direction[1];
+                    }
+                }
+            }
+        }
+    }
+}
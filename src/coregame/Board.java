@@ -1,23 +1,118 @@
 package coregame;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
 public class Board {
 
+    public enum PerftMode
+    {
+        FULL, // every move is made and unmade, down to the leaves
+        BULK  // one depth before the leaves the legal moves are only counted, they are most of the nodes
+    }
+
     private int[] board;
+    private long[] bitboards; // one bitboard per piece type and color, indexed by the piece itself ('P', 'n'...)
+    private long whitePieces, blackPieces;
     private boolean whiteTurn;
-    private boolean[] castleRights;
-    private Coordinate activeEnPassant;
+    private int castleRights; // bit i is set if castlingNotation.charAt(i) is still allowed
+    private int enPassantSquare; // -1 when no pawn can be taken en passant
     private int halfMove, fullMove, blackKingSquare, whiteKingSquare;
-    private ArrayDeque<String> fenHistory, perftInfo;
+    private long zobristKey; // identity of the position, updated with every piece put or removed and every move
+    private MoveList[] moveLists; // index 0 is for the one time calls, the others for each perft depth
+    private int[] fenSquares; // where loadFen (and loadEncoded) put the pieces while they check the rest of the position
+
+    /*
+        Undo stack : each makeMove writes one record of UNDO_RECORD ints, unMakeMove reads it back and restores the board in place
+    */
+    private int[] undoStack;
+    private long[] keyHistory; // zobrist key before each move of the undo stack
+    private int ply;
+
+    private static final int
+        UNDO_RECORD = 9,
+        UNDO_FROM = 0,
+        UNDO_TO = 1,
+        UNDO_MOVED = 2,
+        UNDO_CAPTURED = 3,
+        UNDO_CAPTURE_SQUARE = 4,
+        UNDO_CASTLE = 5,
+        UNDO_EN_PASSANT = 6,
+        UNDO_HALF_MOVE = 7,
+        UNDO_KINGS = 8;
 
     public static final String castlingNotation = "KQkq";
 
+    public static final int ENCODED_SIZE = 32; // bytes written by encode
+
+    // nibble of each piece in the encoding, 0 is never used so a blank buffer can't be read as a position
+    private static final int[] pieceCodes = new int['r' + 1];
+    private static final int[] codePieces = new int[16];
+
+    /*
+        castle rights kept when a move starts or ends on a square : moving the king or a rook, or eating a rook, loses them
+    */
+    private static final int[] castleMask = new int[64];
+
+    static
+    {
+        Arrays.fill(castleMask, 0b1111);
+        castleMask[Coordinate.e1.ordinal()] = 0b1100;
+        castleMask[Coordinate.h1.ordinal()] = 0b1110;
+        castleMask[Coordinate.a1.ordinal()] = 0b1101;
+        castleMask[Coordinate.e8.ordinal()] = 0b0011;
+        castleMask[Coordinate.h8.ordinal()] = 0b1011;
+        castleMask[Coordinate.a8.ordinal()] = 0b0111;
+
+        String codes = "PNBRQK";
+
+        for (int i = 0; i < codes.length(); i++)
+        {
+            pieceCodes[codes.charAt(i)] = i + 1;
+            pieceCodes[codes.charAt(i) + Piece.WHITE] = i + 9;
+            codePieces[i + 1] = codes.charAt(i);
+            codePieces[i + 9] = codes.charAt(i) + Piece.WHITE;
+        }
+    }
+
+    // where the rook of each castle right starts, in the castlingNotation order
+    private static final int[] castleRookSquares = { Coordinate.h1.ordinal(), Coordinate.a1.ordinal(), Coordinate.h8.ordinal(), Coordinate.a8.ordinal() };
+
     public Board(String fen) throws IllegalArgumentException
     {
-        fenHistory = new ArrayDeque<>();
+        board = new int[64];
+        bitboards = new long['r' + 1];
+        fenSquares = new int[64];
+        undoStack = new int[UNDO_RECORD * 256];
+        keyHistory = new long[256];
+        moveLists = new MoveList[]{ new MoveList() };
         loadFen(fen);
-        perftInfo = new ArrayDeque<>();
+    }
+
+    /*
+        Copy of another board sharing nothing with it, so both can be played on separately (one per thread for instance)
+    */
+    public Board(Board other)
+    {
+        board = other.board.clone();
+        bitboards = other.bitboards.clone();
+        whitePieces = other.whitePieces;
+        blackPieces = other.blackPieces;
+        whiteTurn = other.whiteTurn;
+        castleRights = other.castleRights;
+        enPassantSquare = other.enPassantSquare;
+        halfMove = other.halfMove;
+        fullMove = other.fullMove;
+        blackKingSquare = other.blackKingSquare;
+        whiteKingSquare = other.whiteKingSquare;
+        zobristKey = other.zobristKey;
+        undoStack = other.undoStack.clone();
+        keyHistory = other.keyHistory.clone();
+        ply = other.ply;
+        moveLists = new MoveList[]{ new MoveList() };
+        fenSquares = new int[64];
     }
 
     public int get(int index) {
@@ -32,52 +127,147 @@ public class Board {
         return whiteKingSquare;
     }
 
-    public ArrayDeque<String> getPerftInfo() {
-        return perftInfo;
-    }
-
     public boolean whitePlaying() {
         return whiteTurn;
     }
 
-    private boolean check(boolean whiteToPlay)
+    public long getZobristKey() {
+        return zobristKey;
+    }
+
+    /*
+        Bitboard of one piece type and color, 'N' for the white knights for instance
+    */
+    public long getPieces(int piece) {
+        return bitboards[piece];
+    }
+
+    /*
+        Every piece of a color attacking the square, looking through the pieces missing from occupied
+    */
+    private long getAttackers(int targetSquare, boolean byWhite, long occupied)
     {
-        return isSquareAttacked(whiteToPlay ? blackKingSquare : whiteKingSquare, whiteTurn);
+        int color = byWhite ? Piece.WHITE : Piece.BLACK;
+
+        return (Bitboards.knightAttacks(targetSquare) & bitboards[Piece.KNIGHT - color])
+             | (Bitboards.pawnAttacks(!byWhite, targetSquare) & bitboards[Piece.PAWN - color])
+             | (Bitboards.kingAttacks(targetSquare) & bitboards[Piece.KING - color])
+             | (Bitboards.bishopAttacks(targetSquare, occupied) & (bitboards[Piece.BISHOP - color] | bitboards[Piece.QUEEN - color]))
+             | (Bitboards.rookAttacks(targetSquare, occupied) & (bitboards[Piece.ROOK - color] | bitboards[Piece.QUEEN - color]));
     }
 
     /*
-        Well, see if a square is under attack
+        Well, see if a square is under attack : we look from the square itself, a knight on a knight jump away attacks it,
+        a rook or queen first met on a rank or file too, and so on. No move generation needed
     */
-    private boolean isSquareAttacked(int targetSquare, boolean byWhite)
+    public boolean isSquareAttacked(int targetSquare, boolean byWhite)
     {
-        for (int square = 0; square < 64; square++)
-        {
-            int piece = board[square];
+        int color = byWhite ? Piece.WHITE : Piece.BLACK;
+        long occupied = whitePieces | blackPieces;
 
-            if (piece == 0) continue;
+        if ((Bitboards.knightAttacks(targetSquare) & bitboards[Piece.KNIGHT - color]) != 0) return true;
+        if ((Bitboards.pawnAttacks(!byWhite, targetSquare) & bitboards[Piece.PAWN - color]) != 0) return true; // a pawn attacks us if we would attack him as a pawn of the other color
+        if ((Bitboards.kingAttacks(targetSquare) & bitboards[Piece.KING - color]) != 0) return true;
+        if ((Bitboards.bishopAttacks(targetSquare, occupied) & (bitboards[Piece.BISHOP - color] | bitboards[Piece.QUEEN - color])) != 0) return true;
 
-            if (Piece.isWhite(piece) == byWhite)
-            {
-                ArrayDeque<Integer> moves = getPseudoLegalMoves(square, false, true);
-                for (int move : moves) // if a move of the piece target's our square, the square is under attack !
-                    if (move == targetSquare)
-                        return true;
-            }
-        }
+        return (Bitboards.rookAttacks(targetSquare, occupied) & (bitboards[Piece.ROOK - color] | bitboards[Piece.QUEEN - color])) != 0;
+    }
 
-        return false;
+    public boolean inCheck()
+    {
+        return isSquareAttacked(whiteTurn ? whiteKingSquare : blackKingSquare, !whiteTurn);
+    }
+
+    /*
+        Where the game stands, in one pass : the legal moves are only looked for until the first one is found.
+        A mate on the hundredth half move is still a mate
+    */
+    public GameState gameState()
+    {
+        return gameState(hasLegalMove());
+    }
+
+    /*
+        Same as gameState() when the legal moves of the position were already generated, they aren't looked for again
+    */
+    public GameState gameState(MoveList legalMoves)
+    {
+        return gameState(!legalMoves.isEmpty());
     }
 
+    private GameState gameState(boolean hasLegalMove)
+    {
+        if (!hasLegalMove) return inCheck() ? GameState.CHECKMATE : GameState.STALEMATE;
+
+        return draw() ? GameState.DRAW : GameState.ONGOING;
+    }
+
+    /*
+        In check and no legal move
+    */
     public boolean checkMate()
     {
-        for (int square = 0; square < 64; square++)
-        {
-            if (board[square] == 0) continue;
+        return !hasLegalMove() && inCheck();
+    }
 
-            if (!getLegalMoves(square, true).isEmpty()) return false;
-        }
+    /*
+        Not in check but no legal move, a draw
+    */
+    public boolean stalemate()
+    {
+        return !hasLegalMove() && !inCheck();
+    }
+
+    /*
+        How many times the current position was already on the board, looking back in the key history : only the positions
+        with the same side to move, and never before the last capture or pawn move (halfMove), they can't come back after it.
+        Positions before the last loadFen are unknown
+    */
+    public int repetitions()
+    {
+        int repetitions = 0;
+        int oldest = Math.max(0, ply - halfMove);
+
+        for (int i = ply - 2; i >= oldest; i -= 2)
+            if (keyHistory[i] == zobristKey) repetitions++;
+
+        return repetitions;
+    }
+
+    /*
+        100 half moves without a capture or a pawn move
+    */
+    public boolean fiftyMoveRule()
+    {
+        return halfMove >= 100;
+    }
+
+    /*
+        Nobody can mate anymore, whatever happens : kings alone, or with a single knight or bishop,
+        or one bishop each on squares of the same color
+    */
+    public boolean insufficientMaterial()
+    {
+        long majorsAndPawns = bitboards['P'] | bitboards['p'] | bitboards['R'] | bitboards['r'] | bitboards['Q'] | bitboards['q'];
+        if (majorsAndPawns != 0) return false;
+
+        long whiteMinors = bitboards['N'] | bitboards['B'], blackMinors = bitboards['n'] | bitboards['b'];
+        int minors = Long.bitCount(whiteMinors | blackMinors);
 
-        return true;
+        if (minors <= 1) return true;
+
+        // one bishop each, both on light squares or both on dark squares
+        long darkSquares = 0x55AA55AA55AA55AAL;
+        return minors == 2 && Long.bitCount(whiteMinors) == 1 && whiteMinors == bitboards['B'] && blackMinors == bitboards['b']
+            && ((bitboards['B'] & darkSquares) == 0) == ((bitboards['b'] & darkSquares) == 0);
+    }
+
+    /*
+        Threefold repetition, fifty move rule or insufficient material, checkmate and stalemate apart
+    */
+    public boolean draw()
+    {
+        return fiftyMoveRule() || insufficientMaterial() || repetitions() >= 2;
     }
 
     /*
@@ -88,348 +278,517 @@ public class Board {
 
         // if strict, we get the moves ONLY if it's our turn to play
         if ((strict && (whiteTurn ^ Piece.isWhite(board[square]))) || board[square] == 0) return new ArrayDeque<>();
-        int rawPiece = Piece.removeColorFromData(board[square]);
 
-        return switch (rawPiece)
-        {
-            case Piece.PAWN   -> getPawnMoves(square, pawnAlwaysWithDiagonals);
-            case Piece.KNIGHT -> getKnightMoves(square);
-            case Piece.KING   -> getKingMoves(square);
-            case Piece.BISHOP -> getBishopMoves(square);
-            case Piece.ROOK   -> getRookMoves(square);
-            case Piece.QUEEN  -> getQueenMoves(square);
-            default           -> new ArrayDeque<>();
-        };
+        return toSquares(getTargets(square, pawnAlwaysWithDiagonals));
     }
 
-    public ArrayDeque<Integer> getLegalMoves(int square, boolean strict)
+    /*
+        Legal moves of the piece on square, only the side to move has some
+    */
+    public ArrayDeque<Integer> getLegalMoves(int square)
     {
-        ArrayDeque<Integer> pseudoLegalMoves = getPseudoLegalMoves(square, strict, false); // first, get pseudo legal moves
+        ArrayDeque<Integer> legalMoves = new ArrayDeque<>();
 
-        // if it's king's move : well let's add castle move
-        if (Piece.removeColorFromData(board[square]) == Piece.KING && (whiteTurn == Piece.isWhite(board[square])))
-            addCastleMove(square, pseudoLegalMoves);
+        if (board[square] == 0 || (whiteTurn ^ Piece.isWhite(board[square]))) return legalMoves;
 
-        if (pseudoLegalMoves.isEmpty()) return pseudoLegalMoves;
-        
-        ArrayDeque<Integer> legalMoves = new ArrayDeque<>();
+        MoveList moves = getMoveList(0);
+        generateLegalMoves(moves);
 
-        for (int move : pseudoLegalMoves)
+        for (int i = 0; i < moves.size(); i++)
         {
-            // for each pseudo legal move we play them on the board
-            makeMove(square, move, board[square]);
+            int move = moves.get(i);
+            int promotion = Move.promotion(move);
 
-            // if after playing it's not check, it's legal, i think ?
-            // if we are in check, and that we play a move, and we're still in check, it's an illegal move
-            if (!check(whiteTurn))
-                legalMoves.push(move);
-
-            // undo the move now that we know whether the move is legal or not
-            unMakeMove();
+            // a promoting pawn has 4 moves to the same square, we only need the square once
+            if (Move.from(move) == square && (promotion == 0 || Piece.removeColorFromData(promotion) == Piece.QUEEN))
+                legalMoves.push(Move.to(move));
         }
 
         return legalMoves;
     }
 
     /*
-        Gets pawn's move
+        Fills the list with every legal move of the side to move, without playing any of them :
+        the king can't go on an attacked square, in check the other pieces have to take the checker or stand in its way,
+        and a pinned piece can only move along the line between its king and the piece pinning it
     */
-    private ArrayDeque<Integer> getPawnMoves(int square, boolean alwaysWithDiagonals) {
-        ArrayDeque<Integer> pawnMoves = new ArrayDeque<>();
+    public void generateLegalMoves(MoveList moves)
+    {
+        moves.clear();
 
-        int piece = board[square];
-        boolean isWhite = Piece.isWhite(piece);
-    
-        int d = isWhite ? -8 : 8;
-        int startRank = isWhite ? 6 : 1;
-    
-        int step = square + d;
-        if ((step >= 0 && step < 64) && board[step] == 0)
+        int kingSquare = whiteTurn ? whiteKingSquare : blackKingSquare;
+        long kingBit = 1L << kingSquare;
+        long own = whiteTurn ? whitePieces : blackPieces;
+        long occupied = whitePieces | blackPieces;
+
+        // our king got eaten, it only happens from positions where the side to move could already take the other king
+        if ((own & kingBit) == 0 || Piece.removeColorFromData(board[kingSquare]) != Piece.KING) return;
+
+        long checkers = getAttackers(kingSquare, !whiteTurn, occupied);
+
+        addMoves(moves, kingSquare, getLegalKingTargets(kingSquare, own, occupied));
+
+        if (Long.bitCount(checkers) > 1) return; // double check, only the king can do something
+
+        long checkMask = checkers == 0 ? -1L : checkers | Bitboards.between(kingSquare, Long.numberOfTrailingZeros(checkers));
+        long pinned = getPinnedPieces(kingSquare, occupied);
+
+        for (long pieces = own & ~kingBit; pieces != 0; pieces &= pieces - 1)
         {
-            pawnMoves.push(step); // simple push
-    
-            step += d;
-            if ((square / 8) == startRank && board[step] == 0) // double push
-                pawnMoves.push(step);
+            int square = Long.numberOfTrailingZeros(pieces);
+            addMoves(moves, square, getLegalTargets(square, kingSquare, checkMask, pinned, occupied));
         }
-        
-        for (int offset : new int[]{d - 1, d + 1}) // diagonals attack
+
+        if (checkers == 0)
         {
-            int nextSquare = square + offset;
-    
-            boolean onLeftEdge = (square % 8 == 0);
-            boolean onRightEdge = (square % 8 == 7);
-    
-            if ((offset == d - 1 && !onLeftEdge) || (offset == d + 1 && !onRightEdge))
-            {
-                if (nextSquare >= 0 && nextSquare < 64)
-                {
-                    int targetPiece = board[nextSquare];
-                    if (alwaysWithDiagonals || (targetPiece != 0 && !Piece.sameTeam(piece, targetPiece)) || (activeEnPassant != null && activeEnPassant.ordinal() == nextSquare))
-                        pawnMoves.push(nextSquare);
-                }
-            }
+            for (long targets = getCastleTargets(kingSquare); targets != 0; targets &= targets - 1)
+                moves.add(Move.of(kingSquare, Long.numberOfTrailingZeros(targets), 0, Move.CASTLE));
         }
-    
-        return pawnMoves;
     }
 
     /*
-        Gets knight's move
+        Same walk as generateLegalMoves, but it stops at the first piece that can move and nothing is written anywhere.
+        Castles are not looked at : a king that can castle can always step on the square he would cross
     */
-    private ArrayDeque<Integer> getKnightMoves(int square)
+    private boolean hasLegalMove()
     {
-        ArrayDeque<Integer> knightMoves = new ArrayDeque<>();
-        int nextSquare = 0;
+        int kingSquare = whiteTurn ? whiteKingSquare : blackKingSquare;
+        long kingBit = 1L << kingSquare;
+        long own = whiteTurn ? whitePieces : blackPieces;
+        long occupied = whitePieces | blackPieces;
 
-        int piece = board[square];
+        if ((own & kingBit) == 0 || Piece.removeColorFromData(board[kingSquare]) != Piece.KING) return false;
 
-        nextSquare = square - 6;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 0 && nextSquare%8 != 1 && Piece.notAlly(board[nextSquare], piece)) knightMoves.push(nextSquare);
-        nextSquare = square + 6;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 6 && nextSquare%8 != 7 && Piece.notAlly(board[nextSquare], piece)) knightMoves.push(nextSquare);
-        nextSquare = square - 10;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 6 && nextSquare%8 != 7 && Piece.notAlly(board[nextSquare], piece)) knightMoves.push(nextSquare);
-        nextSquare = square + 10;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 0 && nextSquare%8 != 1 && Piece.notAlly(board[nextSquare], piece)) knightMoves.push(nextSquare);
-        nextSquare = square - 15;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 0 && Piece.notAlly(board[nextSquare], piece)) knightMoves.push(nextSquare);
-        nextSquare = square + 15;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 7 && Piece.notAlly(board[nextSquare], piece)) knightMoves.push(nextSquare);
-        nextSquare = square - 17;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 7 && Piece.notAlly(board[nextSquare], piece)) knightMoves.push(nextSquare);
-        nextSquare = square + 17;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 0 && Piece.notAlly(board[nextSquare], piece)) knightMoves.push(nextSquare);
+        long checkers = getAttackers(kingSquare, !whiteTurn, occupied);
 
-        return knightMoves;
+        // the other pieces first, in most positions one of them can move and the king's squares don't need to be checked
+        if (Long.bitCount(checkers) <= 1)
+        {
+            long checkMask = checkers == 0 ? -1L : checkers | Bitboards.between(kingSquare, Long.numberOfTrailingZeros(checkers));
+            long pinned = getPinnedPieces(kingSquare, occupied);
+
+            for (long pieces = own & ~kingBit; pieces != 0; pieces &= pieces - 1)
+                if (getLegalTargets(Long.numberOfTrailingZeros(pieces), kingSquare, checkMask, pinned, occupied) != 0) return true;
+        }
+
+        return getLegalKingTargets(kingSquare, own, occupied) != 0;
     }
 
     /*
-        gets king's regular move (without castle)
+        Squares our king can go to without being attacked, castles apart
     */
-    private ArrayDeque<Integer> getKingMoves(int square)
+    private long getLegalKingTargets(int kingSquare, long own, long occupied)
     {
-        ArrayDeque<Integer> kingMoves = new ArrayDeque<>();
-        int nextSquare = 0;
-        int piece = board[square];
-
-        nextSquare = square + 1;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 0 && Piece.notAlly(board[nextSquare], piece)) kingMoves.push(nextSquare);
-        nextSquare = square - 1;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 7 && Piece.notAlly(board[nextSquare], piece)) kingMoves.push(nextSquare);
-        nextSquare = square + 7;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 7 && Piece.notAlly(board[nextSquare], piece)) kingMoves.push(nextSquare);
-        nextSquare = square - 7;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 0 && Piece.notAlly(board[nextSquare], piece)) kingMoves.push(nextSquare);
-        nextSquare = square + 9;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 0 && Piece.notAlly(board[nextSquare], piece)) kingMoves.push(nextSquare);
-        nextSquare = square - 9;
-        if ((nextSquare >= 0 && nextSquare < 64) && nextSquare%8 != 7 && Piece.notAlly(board[nextSquare], piece)) kingMoves.push(nextSquare);
+        long kingTargets = Bitboards.kingAttacks(kingSquare) & ~own;
 
-        nextSquare = square + 8;
-        if ((nextSquare >= 0 && nextSquare < 64) && Piece.notAlly(board[nextSquare], piece)) kingMoves.push(nextSquare);
-        nextSquare = square - 8;
-        if ((nextSquare >= 0 && nextSquare < 64) && Piece.notAlly(board[nextSquare], piece)) kingMoves.push(nextSquare);
+        // the king leaves his square, so a slider behind him still sees the squares he runs to
+        for (long targets = kingTargets; targets != 0; targets &= targets - 1)
+        {
+            int target = Long.numberOfTrailingZeros(targets);
+            if (getAttackers(target, !whiteTurn, occupied ^ 1L << kingSquare) != 0) kingTargets &= ~(1L << target);
+        }
 
-        return kingMoves;
+        return kingTargets;
     }
 
     /*
-        Adds the possibility to castle (if possible) to pre-existing king moves
+        Squares one of our pieces (not the king) can go to : in check only to take the checker or to stand in its way (checkMask),
+        and a pinned piece only along the line between its king and the piece pinning it
     */
-    public void addCastleMove(int square, ArrayDeque<Integer> kingMoves)
+    private long getLegalTargets(int square, int kingSquare, long checkMask, long pinned, long occupied)
     {
-        int piece = board[square];
-        boolean isWhite = Piece.isWhite(piece);
+        long targets = getTargets(square, false);
+        long enPassant = enPassantSquare != -1 && Piece.removeColorFromData(board[square]) == Piece.PAWN ? targets & 1L << enPassantSquare : 0;
 
-        if (isSquareAttacked(square, !isWhite) || square%8 != 4) return; // check ? can't castle
+        targets &= checkMask & ~enPassant;
+        if ((pinned & 1L << square) != 0) targets &= Bitboards.line(kingSquare, square);
 
-        // already, castled ? rook moved ? a square between the rook and the king is attacked ? or is not empty ? can't castle
-        if ((isWhite ? castleRights[0] : castleRights[2]) &&  board[square+1] == 0 && board[square+2] == 0 && !isSquareAttacked(square+1, !isWhite) && !isSquareAttacked(square+2, !isWhite) && Piece.removeColorFromData(board[square+3]) == Piece.ROOK && Piece.sameTeam(board[square], board[square+3])) kingMoves.push(square+2);
-        if ((isWhite ? castleRights[1] : castleRights[3]) &&  board[square-1] == 0 && board[square-2] == 0 && board[square-3] == 0 && !isSquareAttacked(square-1, !isWhite) && !isSquareAttacked(square-2, !isWhite) && Piece.removeColorFromData(board[square-4]) == Piece.ROOK && Piece.sameTeam(board[square], board[square-4])) kingMoves.push(square-2);
+        // en passant removes two pieces from a rank at once, easier to just look at the board after it
+        if (enPassant != 0 && enPassantIsLegal(square, kingSquare, occupied)) targets |= enPassant;
+
+        return targets;
     }
 
     /*
-        get bishop's pseudo legal moves
+        Our pieces standing alone between our king and an enemy slider
     */
-    private ArrayDeque<Integer> getBishopMoves(int targetSquare)
+    private long getPinnedPieces(int kingSquare, long occupied)
     {
-        ArrayDeque<Integer> bishopMoves = new ArrayDeque<>();
+        int color = whiteTurn ? Piece.BLACK : Piece.WHITE;
+        long enemies = whiteTurn ? blackPieces : whitePieces;
+        long pinned = 0;
 
-        int targetRank = targetSquare/8;
-        int targetFile = targetSquare%8;
+        // enemy sliders that would see our king if our own pieces were not there
+        long snipers = (Bitboards.rookAttacks(kingSquare, enemies) & (bitboards[Piece.ROOK - color] | bitboards[Piece.QUEEN - color]))
+                     | (Bitboards.bishopAttacks(kingSquare, enemies) & (bitboards[Piece.BISHOP - color] | bitboards[Piece.QUEEN - color]));
 
-        int rank, file, square;
-
-        for (rank = targetRank + 1, file = targetFile + 1; rank < 8  && file <  8; rank++, file++) // down right
+        for (; snipers != 0; snipers &= snipers - 1)
         {
-            square = rank*8+file;
-            if (!Piece.notAlly(board[square], board[targetSquare])) break;
-            bishopMoves.push(square);
-            if (board[square] != 0) break;
+            long blockers = Bitboards.between(kingSquare, Long.numberOfTrailingZeros(snipers)) & occupied;
+            if (Long.bitCount(blockers) == 1) pinned |= blockers;
         }
-        for (rank = targetRank - 1, file = targetFile + 1; rank >= 0 && file <  8; rank--, file++) // up right
+
+        return pinned;
+    }
+
+    /*
+        Plays the en passant capture on the occupancy only and checks if our king would be attacked
+    */
+    private boolean enPassantIsLegal(int square, int kingSquare, long occupied)
+    {
+        long captured = 1L << (enPassantSquare + (whiteTurn ? 8 : -8));
+        occupied = (occupied ^ 1L << square ^ captured) | 1L << enPassantSquare;
+
+        return (getAttackers(kingSquare, !whiteTurn, occupied) & ~captured) == 0;
+    }
+
+    /*
+        Packs the moves of the piece on square to every target, with one move per promotion possibility
+    */
+    private void addMoves(MoveList moves, int square, long targets)
+    {
+        int piece = board[square];
+        boolean isPawn = Piece.removeColorFromData(piece) == Piece.PAWN;
+        int color = Piece.isWhite(piece) ? Piece.WHITE : Piece.BLACK;
+
+        for (; targets != 0; targets &= targets - 1)
         {
-            square = rank*8+file;
-            if (!Piece.notAlly(board[square], board[targetSquare])) break;
-            bishopMoves.push(square);
-            if (board[square] != 0) break;
+            int target = Long.numberOfTrailingZeros(targets);
+            int flags = board[target] != 0 ? Move.CAPTURE : 0;
+
+            if (!isPawn) {
+                moves.add(Move.of(square, target, 0, flags));
+                continue;
+            }
+
+            if (target == enPassantSquare) flags |= Move.CAPTURE | Move.EN_PASSANT;
+            if (Math.abs(target - square) == 16) flags |= Move.DOUBLE_PUSH;
+
+            if (target / 8 == 0 || target / 8 == 7) {
+                for (int possiblePromotion : Piece.promotionPossibilities)
+                    moves.add(Move.of(square, target, possiblePromotion - color, flags));
+            } else {
+                moves.add(Move.of(square, target, 0, flags));
+            }
         }
-        for (rank = targetRank + 1, file = targetFile - 1; rank < 8  && file >= 0; rank++, file--) // down left
+    }
+
+    /*
+        Squares the piece on square can go to, as a bitboard
+    */
+    private long getTargets(int square, boolean pawnAlwaysWithDiagonals)
+    {
+        int rawPiece = Piece.removeColorFromData(board[square]);
+
+        return switch (rawPiece)
         {
-            square = rank*8+file;
-            if (!Piece.notAlly(board[square], board[targetSquare])) break;
-            bishopMoves.push(square);
-            if (board[square] != 0) break;
-        }
-        for (rank = targetRank - 1, file = targetFile - 1; rank >= 0 && file >= 0; rank--, file--) // up left
+            case Piece.PAWN   -> getPawnTargets(square, pawnAlwaysWithDiagonals);
+            case Piece.KNIGHT -> getKnightTargets(square);
+            case Piece.KING   -> getKingTargets(square);
+            case Piece.BISHOP -> getBishopTargets(square);
+            case Piece.ROOK   -> getRookTargets(square);
+            case Piece.QUEEN  -> getQueenTargets(square);
+            default           -> 0;
+        };
+    }
+
+    /*
+        Turns a bitboard of target squares into a list of squares
+    */
+    private static ArrayDeque<Integer> toSquares(long targets)
+    {
+        ArrayDeque<Integer> squares = new ArrayDeque<>();
+
+        for (; targets != 0; targets &= targets - 1)
+            squares.push(Long.numberOfTrailingZeros(targets));
+
+        return squares;
+    }
+
+    private long allies(int piece) {
+        return Piece.isWhite(piece) ? whitePieces : blackPieces;
+    }
+
+    /*
+        Gets pawn's move
+    */
+    private long getPawnTargets(int square, boolean alwaysWithDiagonals) {
+        long targets = 0;
+
+        boolean isWhite = Piece.isWhite(board[square]);
+    
+        int d = isWhite ? -8 : 8;
+        int startRank = isWhite ? 6 : 1;
+    
+        int step = square + d;
+        if ((step >= 0 && step < 64) && board[step] == 0)
         {
-            square = rank*8+file;
-            if (!Piece.notAlly(board[square], board[targetSquare])) break;
-            bishopMoves.push(square);
-            if (board[square] != 0) break;
+            targets |= 1L << step; // simple push
+    
+            step += d;
+            if ((square / 8) == startRank && board[step] == 0) // double push
+                targets |= 1L << step;
         }
 
-        // works like the getRookMoves() function
+        long attacks = Bitboards.pawnAttacks(isWhite, square); // diagonals attack
+
+        if (!alwaysWithDiagonals)
+            attacks &= (isWhite ? blackPieces : whitePieces) | (enPassantSquare == -1 ? 0 : 1L << enPassantSquare);
 
-        return bishopMoves;
+        return targets | attacks;
     }
 
     /*
-        Gets rook's pseudo legal moves
+        Gets knight's move
     */
-    private ArrayDeque<Integer> getRookMoves(int targetSquare)
+    private long getKnightTargets(int square)
     {
-        ArrayDeque<Integer> rookMoves = new ArrayDeque<>();
+        return Bitboards.knightAttacks(square) & ~allies(board[square]);
+    }
 
-        int targetRank = targetSquare/8;
-        int targetFile = targetSquare%8;
+    /*
+        gets king's regular move (without castle)
+    */
+    private long getKingTargets(int square)
+    {
+        return Bitboards.kingAttacks(square) & ~allies(board[square]);
+    }
 
-        int rank, file, square;
+    /*
+        Adds the possibility to castle (if possible) to pre-existing king moves
+    */
+    public void addCastleMove(int square, ArrayDeque<Integer> kingMoves)
+    {
+        kingMoves.addAll(toSquares(getCastleTargets(square)));
+    }
 
-        for (rank = targetRank + 1; rank <  8; rank++) // downwards
-        {
-            square = rank * 8 + targetFile;
-            if (!Piece.notAlly(board[square], board[targetSquare])) break;
-            rookMoves.push(square);
-            if (board[square] != 0) break;
-        }
-        for (rank = targetRank - 1; rank >= 0; rank--) // upwards
-        {
-            square = rank * 8 + targetFile;
-            if (!Piece.notAlly(board[square], board[targetSquare])) break;
-            rookMoves.push(square);
-            if (board[square] != 0) break;
-        }
-        for (file = targetFile + 1; file <  8; file++) // right
-        {
-            square = targetRank * 8 + file;
-            if (!Piece.notAlly(board[square], board[targetSquare])) break;
-            rookMoves.push(square);
-            if (board[square] != 0) break;
-        }
-        for (file = targetFile - 1; file >= 0; file--) // left
-        {
-            square = targetRank * 8 + file;
-            if (!Piece.notAlly(board[square], board[targetSquare])) break;
-            rookMoves.push(square);
-            if (board[square] != 0) break;
-        }
+    /*
+        Squares the king on square can castle to
+    */
+    private long getCastleTargets(int square)
+    {
+        int piece = board[square];
+        boolean isWhite = Piece.isWhite(piece);
+        long targets = 0;
+
+        if (Piece.removeColorFromData(piece) != Piece.KING || square%8 != 4 || isSquareAttacked(square, !isWhite)) return targets; // check ? can't castle
 
-        // if we encountered a friendly piece we break before adding the move, if it's an enemy piece we add the move the break;
+        // already, castled ? rook moved ? a square between the rook and the king is attacked ? or is not empty ? can't castle
+        if ((castleRights & (isWhite ? 0b0001 : 0b0100)) != 0 &&  board[square+1] == 0 && board[square+2] == 0 && !isSquareAttacked(square+1, !isWhite) && !isSquareAttacked(square+2, !isWhite) && Piece.removeColorFromData(board[square+3]) == Piece.ROOK && Piece.sameTeam(board[square], board[square+3])) targets |= 1L << (square+2);
+        if ((castleRights & (isWhite ? 0b0010 : 0b1000)) != 0 &&  board[square-1] == 0 && board[square-2] == 0 && board[square-3] == 0 && !isSquareAttacked(square-1, !isWhite) && !isSquareAttacked(square-2, !isWhite) && Piece.removeColorFromData(board[square-4]) == Piece.ROOK && Piece.sameTeam(board[square], board[square-4])) targets |= 1L << (square-2);
 
-        return rookMoves;
+        return targets;
     }
 
     /*
-        Gets queen's pseudo legal moves
+        get bishop's pseudo legal moves
+    */
+    private long getBishopTargets(int square)
+    {
+        return Bitboards.bishopAttacks(square, whitePieces | blackPieces) & ~allies(board[square]);
+    }
+
+    /*
+        Gets rook's pseudo legal moves
     */
-    private ArrayDeque<Integer> getQueenMoves(int square)
+    private long getRookTargets(int square)
     {
-        ArrayDeque<Integer> queenMoves = new ArrayDeque<>();
-        
-        queenMoves.addAll(getRookMoves(square));
-        queenMoves.addAll(getBishopMoves(square));
+        return Bitboards.rookAttacks(square, whitePieces | blackPieces) & ~allies(board[square]);
+    }
 
-        return queenMoves;
+    /*
+        Gets queen's pseudo legal moves
+    */
+    private long getQueenTargets(int square)
+    {
+        return Bitboards.queenAttacks(square, whitePieces | blackPieces) & ~allies(board[square]);
     }
 
     /*
         Init the board with a fen
     */
-    public void loadFen(String fen) throws IllegalArgumentException
+    public void loadFen(CharSequence fen) throws IllegalArgumentException
     {
-        String[] parsed = fen.split(" ");
-        String errorMessage = "Illegal Forsyth-Edwards Notation format";
+        loadFen(fen, 0, fen.length());
+    }
 
-        if (parsed.length != 6) {
-            throw new IllegalArgumentException(errorMessage);
-        }
+    /*
+        Loads the Forsyth-Edwards Notation written between start and end, a line of a bigger file for instance.
+        Everything is checked before the board is touched : a wrong fen throws and leaves the position as it was.
+        Nothing is allocated, unless it throws
+    */
+    public void loadFen(CharSequence fen, int start, int end) throws IllegalArgumentException
+    {
+        int[] squares = fenSquares;
+        Arrays.fill(squares, 0);
 
-        board = new int[64];
+        int i = start, rank = 0, file = 0, whiteKings = 0, blackKings = 0;
+        boolean lastWasDigit = false;
 
-        int rank = 0, file = 0;
+        /* PIECE PLACEMENT, from a8 to h1 */
 
-        for (char sym : parsed[0].toCharArray())
+        for (; i < end && fen.charAt(i) != ' '; i++)
         {
+            char sym = fen.charAt(i);
+
             if (sym == '/') { // we're going to next rank
-                rank++;
+                if (file != 8 || ++rank > 7) throw fenError("a rank doesn't have 8 squares", fen, start, end);
                 file = 0;
-            } else {
-                if (Character.isLetter(sym)) { // OH ! Let's init a piece on the board
-                    int square = rank * 8 + file;
-                    board[square] = sym;
-
-                    //to keep track of our king
-                    if (sym == 'k') blackKingSquare = square;
-                    if (sym == 'K') whiteKingSquare = square; 
-
-                    file++;
-                } else if (Character.isDigit(sym)) { // some empty squares, let's just skip them
-                    file += Character.getNumericValue(sym);
-                } else {
-                    throw new IllegalArgumentException(errorMessage);
-                }
+                lastWasDigit = false;
+            }
+            else if (sym >= '1' && sym <= '8') { // some empty squares, let's just skip them
+                if (lastWasDigit) throw fenError("two numbers in a row", fen, start, end);
+                file += sym - '0';
+                lastWasDigit = true;
             }
+            else if ("KQRBNPkqrbnp".indexOf(sym) != -1) { // OH ! Let's init a piece on the board
+                if (file > 7) throw fenError("a rank doesn't have 8 squares", fen, start, end);
+                if ((sym == 'P' || sym == 'p') && (rank == 0 || rank == 7)) throw fenError("a pawn is on the first or last rank", fen, start, end);
+                if (sym == 'K') whiteKings++;
+                if (sym == 'k') blackKings++;
+
+                squares[rank * 8 + file++] = sym;
+                lastWasDigit = false;
+            }
+            else throw fenError("unknown piece " + sym, fen, start, end);
+
+            if (file > 8) throw fenError("a rank doesn't have 8 squares", fen, start, end);
         }
 
-        castleRights = new boolean[4];
+        if (rank != 7 || file != 8) throw fenError("the board doesn't have 8 ranks of 8 squares", fen, start, end);
+        if (whiteKings != 1 || blackKings != 1) throw fenError("each side needs exactly one king", fen, start, end);
+
+        /* SIDE TO MOVE */
 
-        try {
-            whiteTurn = parsed[1].equals("w"); // who's turn ?
+        i = fenField(fen, i, start, end);
+        if (i + 1 > end || (fen.charAt(i) != 'w' && fen.charAt(i) != 'b') || (i + 1 < end && fen.charAt(i + 1) != ' '))
+            throw fenError("the side to move is neither w nor b", fen, start, end);
 
-            // Castle eval
-            String castleFen = parsed[2];
-            int castleLength = castleFen.length();
+        boolean white = fen.charAt(i++) == 'w';
 
-            if (castleLength < 0 || castleLength > 4) throw new IllegalArgumentException(errorMessage);
+        /* CASTLE RIGHTS, in the KQkq order, the king and the rook still have to be at home */
 
-            else if (!(castleLength == 1 && castleFen.equals("-"))) // if the castleFen is "-" everything is already set to false by default
+        i = fenField(fen, i, start, end);
+        int rights = 0;
+
+        if (i < end && fen.charAt(i) == '-') i++;
+        else
+        {
+            for (; i < end && fen.charAt(i) != ' '; i++)
             {
-                for (int i = 0; i < castleLength; i++)
-                {
-                    char sym = castleFen.charAt(i);
-                    int index = castlingNotation.indexOf(sym);
-
-                    if (index != -1)
-                        castleRights[index] = true;
-                    else
-                        throw new IllegalArgumentException(errorMessage);
-                }
-            }
+                int index = castlingNotation.indexOf(fen.charAt(i));
 
-            if (parsed[3].equals("-")) {
-                activeEnPassant = null;
-            } else {
-                activeEnPassant = Coordinate.valueOf(parsed[3]);
+                if (index == -1 || 1 << index <= rights) throw fenError("castle rights are not a part of KQkq", fen, start, end);
+
+                rights |= 1 << index;
             }
 
-            halfMove = Integer.parseInt(parsed[4]);
-            fullMove = Integer.parseInt(parsed[5]);
+            if (rights == 0) throw fenError("castle rights are empty", fen, start, end);
+        }
+
+        for (int side = 0; side < 4; side++)
+        {
+            if ((rights & 1 << side) == 0) continue;
+
+            int king = side < 2 ? 'K' : 'k', rookSquare = castleRookSquares[side];
+            if (squares[side < 2 ? Coordinate.e1.ordinal() : Coordinate.e8.ordinal()] != king || squares[rookSquare] != king - Piece.KING + Piece.ROOK)
+                throw fenError("castle rights without the king and the rook on their squares", fen, start, end);
+        }
+
+        /* EN PASSANT, the pawn that just double pushed has to be there */
+
+        i = fenField(fen, i, start, end);
+        int enPassant = -1;
+
+        if (i < end && fen.charAt(i) == '-') i++;
+        else
+        {
+            if (i + 2 > end) throw fenError("wrong en passant square", fen, start, end);
+
+            int enPassantFile = fen.charAt(i) - 'a', enPassantRank = fen.charAt(i + 1) - '1';
+            enPassant = (7 - enPassantRank) * 8 + enPassantFile;
+            int pushed = enPassant + (white ? 8 : -8);
+
+            if (enPassantFile < 0 || enPassantFile > 7 || enPassantRank != (white ? 5 : 2) || squares[enPassant] != 0 || squares[pushed] != (white ? 'p' : 'P'))
+                throw fenError("wrong en passant square", fen, start, end);
+
+            i += 2;
+        }
+
+        /* CLOCKS */
+
+        i = fenField(fen, i, start, end);
+        int half = fenNumber(fen, i, end);
+        if (half == -1) throw fenError("wrong half move clock", fen, start, end);
+
+        while (i < end && fen.charAt(i) != ' ') i++;
+
+        i = fenField(fen, i, start, end);
+        int full = fenNumber(fen, i, end);
+        if (full < 1) throw fenError("wrong full move number", fen, start, end);
+
+        while (i < end && fen.charAt(i) != ' ') i++;
+        if (i != end) throw fenError("more than 6 fields", fen, start, end);
+
+        /* EVERYTHING IS RIGHT, let's put it on the board */
+
+        Arrays.fill(board, 0);
+        Arrays.fill(bitboards, 0);
+        whitePieces = blackPieces = 0;
+        zobristKey = 0;
+
+        ply = 0; // a new position, the previous moves can't be undone anymore
+
+        for (int square = 0; square < 64; square++)
+        {
+            if (squares[square] == 0) continue;
+
+            putPiece(square, squares[square]);
+
+            //to keep track of our king
+            if (squares[square] == 'k') blackKingSquare = square;
+            if (squares[square] == 'K') whiteKingSquare = square;
         }
-        catch(Exception e) {
-            e.printStackTrace();
+
+        whiteTurn = white;
+        castleRights = rights;
+        enPassantSquare = enPassant;
+        halfMove = half;
+        fullMove = full;
+
+        zobristKey ^= Zobrist.castle(castleRights) ^ enPassantKey() ^ (whiteTurn ? 0 : Zobrist.side());
+    }
+
+    /*
+        Skips the single space before the next field, which has to be there
+    */
+    private static int fenField(CharSequence fen, int i, int start, int end)
+    {
+        if (i + 1 >= end || fen.charAt(i) != ' ' || fen.charAt(i + 1) == ' ') throw fenError("missing field or fields not separated by one space", fen, start, end);
+
+        return i + 1;
+    }
+
+    /*
+        The number starting at i, -1 if there's none or it's too big to be a move counter
+    */
+    private static int fenNumber(CharSequence fen, int i, int end)
+    {
+        int number = 0, digits = 0;
+
+        for (; i < end && fen.charAt(i) != ' '; i++, digits++)
+        {
+            char digit = fen.charAt(i);
+            if (digit < '0' || digit > '9' || digits == 6) return -1;
+            number = number * 10 + digit - '0';
         }
+
+        return digits == 0 ? -1 : number;
+    }
+
+    private static IllegalArgumentException fenError(String reason, CharSequence fen, int start, int end)
+    {
+        return new IllegalArgumentException("Illegal Forsyth-Edwards Notation format, " + reason + " : " + fen.subSequence(start, end));
     }
 
     /*
@@ -437,41 +796,177 @@ public class Board {
     */
     public String getFen()
     {
-        String fen = "";
+        return appendFen(new StringBuilder(90)).toString();
+    }
+
+    /*
+        Writes our board's Forsyth-Edwards Notation at the end of fen, nothing is allocated once the builder is big enough
+    */
+    public StringBuilder appendFen(StringBuilder fen)
+    {
         int blank = 0;
 
         for (int square = 0; square < 64; square++) // First part of the string
         {
             int piece = board[square];
-            
+
             if (square % 8 == 0 && square != 0)
             {
-                fen += (blank == 0 ? "" : blank) + "/";
+                if (blank != 0) fen.append(blank);
+                fen.append('/');
                 blank = 0;
             }
-            
+
             if (piece != 0)
             {
-                fen += (blank == 0 ? "" : blank) + "" + (char)piece;
-                if (blank != 0) blank = 0;
+                if (blank != 0) fen.append(blank);
+                fen.append((char) piece);
+                blank = 0;
             }
-
-            if (piece == 0) blank++;
+            else blank++;
         }
 
-        if (blank != 0) fen += blank;
+        if (blank != 0) fen.append(blank);
+
+        fen.append(' ').append(whiteTurn ? 'w' : 'b').append(' '); // who's turn
 
-        fen += " " + (whiteTurn ? "w" : "b") + " "; // who's turn
+        if (castleRights == 0) fen.append('-');
 
-        String castleFen = "";
         for (int i = 0; i < 4; i++)
-            castleFen += castleRights[i] ? castlingNotation.charAt(i) : ""; // generating castle rights string
+            if ((castleRights & 1 << i) != 0) fen.append(castlingNotation.charAt(i)); // generating castle rights string
+
+        fen.append(' ');
+
+        // en passant target square and details on halfMove and fullMove
+        if (enPassantSquare == -1) fen.append('-');
+        else fen.append((char) ('a' + Coordinate.file(enPassantSquare))).append(Coordinate.rank(enPassantSquare));
+
+        return fen.append(' ').append(halfMove).append(' ').append(fullMove);
+    }
+
+    /*
+        Writes the position in ENCODED_SIZE bytes at offset, without moving the buffer's position :
+        occupancy (8 bytes), one nibble per piece in square order (16 bytes), then side, castle rights, en passant file
+        and both clocks packed in a long. Throws if the position has more than 32 pieces or huge clocks
+    */
+    public void encode(ByteBuffer buffer, int offset) throws IllegalArgumentException
+    {
+        long occupied = whitePieces | blackPieces;
+
+        if (Long.bitCount(occupied) > 32 || halfMove > 1023 || fullMove > 65535) throw new IllegalArgumentException("position too big to be encoded");
+
+        buffer.putLong(offset, occupied);
+
+        long firstNibbles = 0, lastNibbles = 0; // the first 16 pieces, then the others
+
+        for (int count = 0; occupied != 0; occupied &= occupied - 1, count++)
+        {
+            long code = pieceCodes[board[Long.numberOfTrailingZeros(occupied)]];
+
+            if (count < 16) firstNibbles |= code << (count * 4);
+            else lastNibbles |= code << ((count - 16) * 4);
+        }
+
+        buffer.putLong(offset + 8, firstNibbles);
+        buffer.putLong(offset + 16, lastNibbles);
+
+        buffer.putLong(offset + 24, (whiteTurn ? 1 : 0)
+                                  | castleRights << 1
+                                  | (enPassantSquare == -1 ? 0 : Coordinate.file(enPassantSquare) + 1) << 5
+                                  | halfMove << 9
+                                  | (long) fullMove << 19);
+    }
+
+    /*
+        Loads a position written by encode, no text to parse : much cheaper than loadFen, and just as complete
+    */
+    public void loadEncoded(ByteBuffer buffer, int offset) throws IllegalArgumentException
+    {
+        long occupied = buffer.getLong(offset);
+        long state = buffer.getLong(offset + 24);
+
+        // every piece is decoded and checked before the board is touched, like loadFen : a corrupt record leaves it as it was
+        if (Long.bitCount(occupied) > 32) throw new IllegalArgumentException("not an encoded position, more than 32 pieces");
+
+        int[] pieces = fenSquares; // the pieces in the order of the occupied squares
+        int count = 0, whiteKings = 0, blackKings = 0;
+        long nibbles = buffer.getLong(offset + 8);
 
-        fen += castleFen.isEmpty() ? "-" : castleFen;
-        
-        fen += " " + (activeEnPassant == null ? "-" : activeEnPassant.name()) + " " + halfMove + " " + fullMove; // en passant target square and details on halfMove and fullMove
+        for (long squares = occupied; squares != 0; squares &= squares - 1, count++)
+        {
+            if (count == 16) nibbles = buffer.getLong(offset + 16);
+
+            int piece = codePieces[(int) (nibbles >>> (count % 16 * 4)) & 15];
+
+            if (piece == 0) throw new IllegalArgumentException("not an encoded position, unknown piece code");
+            if (piece == 'K') whiteKings++;
+            if (piece == 'k') blackKings++;
+
+            pieces[count] = piece;
+        }
+
+        if (whiteKings != 1 || blackKings != 1) throw new IllegalArgumentException("not an encoded position, each side needs exactly one king");
+
+        Arrays.fill(board, 0);
+        Arrays.fill(bitboards, 0);
+        whitePieces = blackPieces = 0;
+        zobristKey = 0;
+
+        ply = 0; // a new position, the previous moves can't be undone anymore
+
+        for (int i = 0; occupied != 0; occupied &= occupied - 1, i++)
+        {
+            int square = Long.numberOfTrailingZeros(occupied);
+            int piece = pieces[i];
+
+            putPiece(square, piece);
+
+            if (piece == 'k') blackKingSquare = square;
+            if (piece == 'K') whiteKingSquare = square;
+        }
+
+        whiteTurn = (state & 1) != 0;
+        castleRights = (int) (state >>> 1) & 15;
+        int enPassantFile = (int) (state >>> 5) & 15;
+        enPassantSquare = enPassantFile == 0 ? -1 : (whiteTurn ? 16 : 40) + enPassantFile - 1;
+        halfMove = (int) (state >>> 9) & 1023;
+        fullMove = (int) (state >>> 19) & 65535;
+
+        zobristKey ^= Zobrist.castle(castleRights) ^ enPassantKey() ^ (whiteTurn ? 0 : Zobrist.side());
+    }
+
+    /*
+        Puts a piece on an empty square, keeping the bitboards up to date with the board
+    */
+    private void putPiece(int square, int piece)
+    {
+        long bit = 1L << square;
+
+        board[square] = piece;
+        bitboards[piece] |= bit;
+        zobristKey ^= Zobrist.piece(piece, square);
+
+        if (Piece.isWhite(piece)) whitePieces |= bit;
+        else blackPieces |= bit;
+    }
+
+    /*
+        Empties a square, keeping the bitboards up to date with the board
+    */
+    private void removePiece(int square)
+    {
+        long bit = ~(1L << square);
+
+        zobristKey ^= Zobrist.piece(board[square], square);
+        bitboards[board[square]] &= bit;
+        whitePieces &= bit;
+        blackPieces &= bit;
+        board[square] = 0;
+    }
 
-        return fen;
+    public void makeMove(int move)
+    {
+        makeMove(Move.from(move), Move.to(move), Move.promotion(move));
     }
 
     /*
@@ -479,90 +974,53 @@ public class Board {
     */
     public void makeMove(int squareB, int squareD, int whatPieceWhenPromoted)
     {
-        fenHistory.push(getFen()); // before making changes on our board, let's just save it to unmake the move later on if we wish to
+        int piece = board[squareB];
+        int rawPiece = Piece.removeColorFromData(piece);
+        boolean isWhite = Piece.isWhite(piece);
+        boolean isPawn = rawPiece == Piece.PAWN;
+
+        int d = isWhite ? -1 : 1;
+        int enPassantTarget = squareD + 8 * -d; // the dude who's going to be eaten
+        int captureSquare = (isPawn && enPassantSquare == squareD) ? enPassantTarget : squareD;
+
+        saveState(squareB, squareD, captureSquare); // before making changes on our board, let's just save what we need to unmake the move later on if we wish to
+        zobristKey ^= Zobrist.castle(castleRights) ^ enPassantKey(); // the pieces update the key themselves, rights and en passant are put back at the end
         halfMove++;
 
-        if (board[squareD] != 0)
+        if (board[captureSquare] != 0)
+        {
+            removePiece(captureSquare);
             halfMove = 0;
+        }
 
-        // moving our piece
-        board[squareD] = board[squareB];
-        board[squareB] = 0;
-
-        int rawPiece = Piece.removeColorFromData(board[squareD]);
-        boolean isWhite = Piece.isWhite(board[squareD]);
+        // moving our piece, the pawn did it if he reaches the last rank ! he can be promoted
+        removePiece(squareB);
+        putPiece(squareD, (isPawn && squareD/8 == (isWhite ? 0 : 7)) ? whatPieceWhenPromoted : piece);
 
         //let's just keep track of our kings location
         blackKingSquare = (rawPiece == Piece.KING && !isWhite) ? squareD : blackKingSquare;
         whiteKingSquare = (rawPiece == Piece.KING &&  isWhite) ? squareD : whiteKingSquare;
 
-        int d;
-        
         /* KING MANAGEMENT : CASTLING */
-        if (isWhite ? (castleRights[0] || castleRights[1]) : (castleRights[2] || castleRights[3])) // do they still have the right to check
+        if (rawPiece == Piece.KING && Math.abs(squareD - squareB) == 2) // the king castled ! the rook should come here now
         {
             int rank = squareD/8;
-            int file = squareD%8;
+            int d1 = rank * 8 + (squareD%8 == 6 ? 5 : 3);
+            int d2 = rank * 8 + (squareD%8 == 6 ? 7 : 0);
 
-            if (rawPiece == Piece.ROOK)
-            {
-                // if a rook is moving then he loses his ability to castle with his king
-                if (isWhite)
-                {
-                    if (squareB%8 == 7) castleRights[0] = false;
-                    if (squareB%8 == 0) castleRights[1] = false;
-                }
-
-                else
-                {
-                    if (squareB%8 == 7) castleRights[2] = false;
-                    if (squareB%8 == 0) castleRights[3] = false;
-                }
-            }
-
-            if (rawPiece == Piece.KING)
-            {
-                if (file == 2 || file == 6) // the king castled ! the rook should come here now
-                {
-                    d = file == 6 ? 7 : 0;
-
-                    int d1 = rank * 8 + (file == 6 ? 5 : 3);
-                    int d2 = rank * 8 + d;
-
-                    board[d1] = board[d2];
-                    board[d2] = 0;
-                }
-                
-                // king won't castle anymore
-                if (isWhite) {
-                    castleRights[0] = false;
-                    castleRights[1] = false;
-                } else {
-                    castleRights[2] = false;
-                    castleRights[3] = false;
-                }
-            }
+            putPiece(d1, board[d2]);
+            removePiece(d2);
         }
-        
-        /* PAWN MANAGEMENT : EN PASSANT AND PROMOTION */
-        
-        boolean isPawn = rawPiece == Piece.PAWN;
-        d = isWhite ? -1 : 1;
-        int enPassantTarget = squareD + 8 * -d; // the dude who's going to be eaten
 
-        if (isPawn && activeEnPassant != null && activeEnPassant.ordinal() == squareD)
-        {
-            board[enPassantTarget] = 0;
-        }
+        // the king or a rook moved, or a rook got eaten : no more castle on that side
+        castleRights &= castleMask[squareB] & castleMask[squareD];
 
-        activeEnPassant = null; // if we move a piece, the last enPassant square is reset
+        /* PAWN MANAGEMENT : EN PASSANT */
 
-        if (isPawn && squareD == squareB + 16 * d)
-            activeEnPassant = Coordinate.of(enPassantTarget); // if a pawn double pushes his opponents pawn can en Passant him
-            
-        d = (d == -1 ? 0 : 7);
+        enPassantSquare = -1; // if we move a piece, the last enPassant square is reset
 
-        if (isPawn && squareD/8 == d) board[squareD] = whatPieceWhenPromoted; // the pawn did it ! he can be promoted
+        if (isPawn && squareD == squareB + 16 * d)
+            enPassantSquare = enPassantTarget; // if a pawn double pushes his opponents pawn can en Passant him
 
         /* NEXT TURN */
 
@@ -572,66 +1030,184 @@ public class Board {
             halfMove = 0;
         }
         whiteTurn = !whiteTurn;
+        zobristKey ^= Zobrist.castle(castleRights) ^ enPassantKey() ^ Zobrist.side();
+    }
+
+    /*
+        The en passant file is only part of the key if a pawn of the side to move can really take en passant,
+        otherwise the same position would get two keys depending on the last move
+    */
+    private long enPassantKey()
+    {
+        if (enPassantSquare == -1) return 0;
+
+        long takers = Bitboards.pawnAttacks(!whiteTurn, enPassantSquare) & bitboards[Piece.PAWN - (whiteTurn ? Piece.WHITE : Piece.BLACK)];
+        return takers == 0 ? 0 : Zobrist.enPassant(enPassantSquare);
+    }
+
+    /*
+        Writes the undo record of the move about to be played, the stack only grows when a game gets really long
+    */
+    private void saveState(int squareB, int squareD, int captureSquare)
+    {
+        int record = ply * UNDO_RECORD;
+
+        if (record + UNDO_RECORD > undoStack.length)
+        {
+            undoStack = Arrays.copyOf(undoStack, undoStack.length * 2);
+            keyHistory = Arrays.copyOf(keyHistory, keyHistory.length * 2);
+        }
+
+        keyHistory[ply] = zobristKey;
+
+        undoStack[record + UNDO_FROM] = squareB;
+        undoStack[record + UNDO_TO] = squareD;
+        undoStack[record + UNDO_MOVED] = board[squareB];
+        undoStack[record + UNDO_CAPTURED] = board[captureSquare];
+        undoStack[record + UNDO_CAPTURE_SQUARE] = captureSquare;
+        undoStack[record + UNDO_CASTLE] = castleRights;
+        undoStack[record + UNDO_EN_PASSANT] = enPassantSquare;
+        undoStack[record + UNDO_HALF_MOVE] = halfMove;
+        undoStack[record + UNDO_KINGS] = whiteKingSquare | blackKingSquare << 6;
+
+        ply++;
     }
 
     /*
-        Takes previous board fen and loads it
+        Pops the last undo record and puts everything back where it was
     */
     public void unMakeMove()
     {
-        if (!fenHistory.isEmpty())
-            loadFen(fenHistory.pop());
+        if (ply == 0) return;
+
+        int record = --ply * UNDO_RECORD;
+        int squareB = undoStack[record + UNDO_FROM];
+        int squareD = undoStack[record + UNDO_TO];
+        int moved = undoStack[record + UNDO_MOVED];
+        int captured = undoStack[record + UNDO_CAPTURED];
+
+        // the piece goes back (as a pawn if it was promoted) and the eaten piece comes back to life
+        removePiece(squareD);
+        putPiece(squareB, moved);
+
+        if (captured != 0)
+            putPiece(undoStack[record + UNDO_CAPTURE_SQUARE], captured);
+
+        if (Piece.removeColorFromData(moved) == Piece.KING && Math.abs(squareD - squareB) == 2) // it was a castle, the rook goes back too
+        {
+            int rank = squareD / 8;
+            int d1 = rank * 8 + (squareD % 8 == 6 ? 5 : 3);
+            int d2 = rank * 8 + (squareD % 8 == 6 ? 7 : 0);
+
+            putPiece(d2, board[d1]);
+            removePiece(d1);
+        }
+
+        castleRights = undoStack[record + UNDO_CASTLE];
+        enPassantSquare = undoStack[record + UNDO_EN_PASSANT];
+        halfMove = undoStack[record + UNDO_HALF_MOVE];
+        whiteKingSquare = undoStack[record + UNDO_KINGS] & 63;
+        blackKingSquare = undoStack[record + UNDO_KINGS] >> 6;
+        zobristKey = keyHistory[ply];
+
+        whiteTurn = !whiteTurn;
+        if (!whiteTurn) fullMove--;
+    }
+
+    public long perft(int depth)
+    {
+        return perft(depth, depth, null, PerftMode.FULL, null);
+    }
+
+    /*
+        Same as perft(depth) but positions already counted at the same depth are looked up in the table
+    */
+    public long perft(int depth, PerftTable table)
+    {
+        return perft(depth, depth, table, PerftMode.FULL, null);
     }
 
-    public int perft(int depth, boolean quiet)
+    /*
+        Same count whatever the mode, table can be null
+    */
+    public long perft(int depth, PerftTable table, PerftMode mode)
+    {
+        return perft(depth, depth, table, mode, null);
+    }
+
+    /*
+        Divide : each root move is given to the listener (can be null) as soon as its subtree is counted, in the order of the move list
+    */
+    public long perft(int depth, PerftTable table, PerftMode mode, Consumer<DivideResult> listener)
     {
-        return perft(depth, depth, quiet);
+        return perft(depth, depth, table, mode, listener);
     }
 
     /*
         Returns the number of makeable moves at a given board, for a given depth
     */
-    private int perft(int depth, int initialDepth, boolean quiet)
+    private long perft(int depth, int initialDepth, PerftTable table, PerftMode mode, Consumer<DivideResult> listener)
     {
         if (depth == 0) { // Won't go too further
             return 1;
         }
+
+        // bulk counting : each legal move is one leaf, promotions already are 4 moves (not at the root if the divide lines are wanted)
+        if (depth == 1 && mode == PerftMode.BULK && (listener == null || initialDepth > 1))
+        {
+            MoveList moves = getMoveList(depth);
+            generateLegalMoves(moves);
+            return moves.size();
+        }
+
+        // transposition : we already went through this position (not at the root, we want every divide line there)
+        if (table != null && depth > 1 && depth < initialDepth)
+        {
+            long cached = table.probe(zobristKey, depth);
+            if (cached != -1) return cached;
+        }
     
-        int totalMoves = 0;
+        long totalMoves = 0;
+        boolean divide = listener != null && depth == initialDepth;
+
+        MoveList moves = getMoveList(depth); // every depth has its own list, the deeper calls won't overwrite ours
+        generateLegalMoves(moves); // we get the legal moves, promotions are already one move per piece
     
-        for (int square = 0; square < 64; square++) {
+        for (int i = 0; i < moves.size(); i++) { // And for each of them
 
-            if (board[square] == 0) continue; // for each pieces on the board
+            int move = moves.get(i);
+            long beginning = divide ? System.nanoTime() : 0;
 
-            ArrayDeque<Integer> legalMoves = getLegalMoves(square, true); // we get the legal moves
-    
-            for (int move : legalMoves) { // And for each of them
-
-                boolean isWhite = Piece.isWhite(board[square]);
-                if ((Piece.removeColorFromData(board[square]) == Piece.PAWN) && move / 8 == (isWhite ? 0 : 7)) {
-                    for (int possiblePromotion : Piece.promotionPossibilities) { // if it's a pawn promoting, we do every promotion
-                        makeMove(square, move, possiblePromotion - (isWhite ? Piece.WHITE : Piece.BLACK)); // we promote the pawn and play the move
-                        int nodes = perft(depth-1, initialDepth, quiet); // count the possibilities
-
-                        if (!quiet && depth == initialDepth)
-                            perftInfo.push("" + Coordinate.of(square) + Coordinate.of(move) + (char)possiblePromotion + ": " + nodes);
-
-                        totalMoves += nodes;
-                        unMakeMove(); // backtrack
-                    }
-                } else {
-                    makeMove(square, move, board[square]); // make the move
-                    int nodes = perft(depth-1, initialDepth, quiet);
-
-                    if (!quiet && depth == initialDepth)
-                        perftInfo.push("" + Coordinate.of(square) + Coordinate.of(move) + ": " + nodes);
-
-                    totalMoves += nodes; // count the possibilities
-                    unMakeMove(); // backtrack
-                }
-            }
+            makeMove(move); // make the move
+            long nodes = perft(depth-1, initialDepth, table, mode, listener); // count the possibilities
+
+            totalMoves += nodes;
+            unMakeMove(); // backtrack
+
+            if (divide) // the board is back to the root, the listener can look at it
+                listener.accept(new DivideResult(move, nodes, System.nanoTime() - beginning));
         }
 
+        if (table != null && depth > 1)
+            table.store(zobristKey, depth, totalMoves);
+
         return totalMoves;
     }
+
+    /*
+        Move list reserved for a depth, the pool only grows the first time we go that deep
+    */
+    private MoveList getMoveList(int depth)
+    {
+        if (depth >= moveLists.length)
+        {
+            int previousLength = moveLists.length;
+            moveLists = Arrays.copyOf(moveLists, depth + 1);
+
+            for (int i = previousLength; i <= depth; i++)
+                moveLists[i] = new MoveList();
+        }
+
+        return moveLists[depth];
+    }
 }
@@ -11,11 +11,34 @@ public enum Coordinate
     a2, b2, c2, d2, e2, f2, g2, h2,
     a1, b1, c1, d1, e1, f1, g1, h1;
 
+    private static final Coordinate[] squares = values(); // values() clones the array at each call, this one is shared
+
+    private static final int[]
+        ranks = new int[64], // 1 to 8 like the name, a8 is on rank 8
+        files = new int[64]; // 0 for a to 7 for h
+
+    static
+    {
+        for (int square = 0; square < 64; square++)
+        {
+            ranks[square] = 8 - square / 8;
+            files[square] = square % 8;
+        }
+    }
+
+    /*
+        The coordinate of a square index, null if there's none
+    */
     public static Coordinate of(int index)
     {
-        for (Coordinate t : values())
-            if (t.ordinal() == index) return t;
+        return index >= 0 && index < 64 ? squares[index] : null;
+    }
+
+    public static int rank(int square) {
+        return ranks[square];
+    }
 
-        return null;
+    public static int file(int square) {
+        return files[square];
     }
 } // can use ordinal() to use the right index and .name() for coordinate String value
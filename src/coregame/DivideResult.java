@@ -0,0 +1,55 @@
+package coregame;
+
+import java.util.Comparator;
+
+/*
+    One line of a perft divide : a root move, the nodes under it and how long they took to count
+*/
+public final class DivideResult
+{
+    /*
+        The order of most divide outputs, e2e4 before g1f3, so two of them can be compared line by line
+    */
+    public static final Comparator<DivideResult> BY_MOVE = Comparator.comparing(DivideResult::getUciMove);
+
+    private final int move;
+    private final long nodes, timeNanos;
+
+    DivideResult(int move, long nodes, long timeNanos)
+    {
+        this.move = move;
+        this.nodes = nodes;
+        this.timeNanos = timeNanos;
+    }
+
+    public int getMove() {
+        return move;
+    }
+
+    /*
+        Long algebraic notation, e7e8q for instance
+    */
+    public String getUciMove() {
+        return Move.toString(move);
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public long getNodesPerSecond() {
+        return (long) (nodes * 1e9 / Math.max(1, timeNanos));
+    }
+
+    /*
+        e2e4: 20, the line other engines print so a divide can be diffed against theirs
+    */
+    @Override
+    public String toString() {
+        return getUciMove() + ": " + nodes;
+    }
+}
@@ -0,0 +1,12 @@
+package coregame;
+
+/*
+    Where a game stands, see Board.gameState()
+*/
+public enum GameState
+{
+    ONGOING,
+    CHECKMATE,
+    STALEMATE,
+    DRAW // threefold repetition, fifty move rule or insufficient material
+}
@@ -0,0 +1,47 @@
+package coregame;
+
+/*
+    A move packed in a single int : from square, destination square, promotion piece (0 if none) and flags
+*/
+public final class Move
+{
+    public static final int
+        CAPTURE = 1 << 19,
+        EN_PASSANT = 1 << 20,
+        CASTLE = 1 << 21,
+        DOUBLE_PUSH = 1 << 22;
+
+    private Move() {}
+
+    public static int of(int from, int to, int promotion, int flags) {
+        return from | to << 6 | promotion << 12 | flags;
+    }
+
+    public static int from(int move) {
+        return move & 63;
+    }
+
+    public static int to(int move) {
+        return (move >>> 6) & 63;
+    }
+
+    /*
+        The piece the pawn becomes, with its color ('Q', 'n'...), 0 if it's not a promotion
+    */
+    public static int promotion(int move) {
+        return (move >>> 12) & 127;
+    }
+
+    public static boolean is(int move, int flag) {
+        return (move & flag) != 0;
+    }
+
+    /*
+        Long algebraic notation, e7e8q for instance
+    */
+    public static String toString(int move)
+    {
+        String notation = Coordinate.of(from(move)).name() + Coordinate.of(to(move)).name();
+        return promotion(move) == 0 ? notation : notation + (char) Piece.removeColorFromData(promotion(move));
+    }
+}
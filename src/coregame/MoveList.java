@@ -0,0 +1,41 @@
+package coregame;
+
+/*
+    Reusable buffer of packed moves (see Move), filled by the Board generators instead of allocating a new collection each time
+*/
+public final class MoveList
+{
+    private final int[] moves = new int[256]; // no position has more pseudo legal moves than that
+    private int size;
+
+    public void add(int move) {
+        moves[size++] = move;
+    }
+
+    public int get(int index) {
+        return moves[index];
+    }
+
+    public void set(int index, int move) {
+        moves[index] = move;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /*
+        Keeps only the first moves, used when filtering the list in place
+    */
+    public void truncate(int size) {
+        this.size = size;
+    }
+}
@@ -0,0 +1,148 @@
+package coregame;
+
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/*
+    Perft on several threads : the moves down to splitDepth are shared between the threads of a fork/join pool,
+    every subtree being counted on its own copy of the board. The threads can share a PerftTable
+*/
+public final class ParallelPerft implements AutoCloseable
+{
+    private final ForkJoinPool pool;
+    private final int splitDepth;
+    private final PerftTable table;
+    private final Board.PerftMode mode;
+
+    public ParallelPerft(int threads, int splitDepth) throws IllegalArgumentException
+    {
+        this(threads, splitDepth, null);
+    }
+
+    /*
+        table can be null, the subtrees are counted without hashing then
+    */
+    public ParallelPerft(int threads, int splitDepth, PerftTable table) throws IllegalArgumentException
+    {
+        this(threads, splitDepth, table, Board.PerftMode.FULL);
+    }
+
+    /*
+        mode is the one each subtree is counted with, see Board.PerftMode
+    */
+    public ParallelPerft(int threads, int splitDepth, PerftTable table, Board.PerftMode mode) throws IllegalArgumentException
+    {
+        if (threads < 1 || splitDepth < 1) throw new IllegalArgumentException("threads and split depth must be at least 1");
+
+        pool = new ForkJoinPool(threads);
+        this.splitDepth = splitDepth;
+        this.table = table;
+        this.mode = mode;
+    }
+
+    /*
+        Same count as board.perft(depth, table, mode, listener), but the root moves reach the listener (can be null, called on the calling thread)
+        in the order they finish, not the one of the move list. The time of each is from the moment a thread starts on it
+    */
+    public long perft(Board board, int depth, Consumer<DivideResult> listener)
+    {
+        if (depth == 0) return 1;
+
+        MoveList moves = new MoveList();
+        board.generateLegalMoves(moves);
+
+        CompletionService<DivideResult> rootMoves = new ExecutorCompletionService<>(pool);
+
+        for (int i = 0; i < moves.size(); i++)
+        {
+            int move = moves.get(i);
+            Board child = new Board(board);
+            child.makeMove(move);
+            Subtree subtree = new Subtree(child, depth - 1, splitDepth - 1, table, mode);
+
+            rootMoves.submit(() -> {
+                long beginning = System.nanoTime();
+                long nodes = subtree.invoke();
+                return new DivideResult(move, nodes, System.nanoTime() - beginning);
+            });
+        }
+
+        long totalMoves = 0;
+
+        for (int i = 0; i < moves.size(); i++)
+        {
+            DivideResult result;
+
+            try {
+                result = rootMoves.take().get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+
+            if (listener != null) listener.accept(result);
+
+            totalMoves += result.getNodes();
+        }
+
+        return totalMoves;
+    }
+
+    @Override
+    public void close()
+    {
+        pool.shutdown();
+    }
+
+    /*
+        Counts the nodes under a position, splitting again into one task per move until the split depth is reached
+    */
+    private static final class Subtree extends RecursiveTask<Long>
+    {
+        private static final long serialVersionUID = 1L; // tasks are serializable, these ones are never serialized
+
+        private final transient Board board;
+        private final int depth, split;
+        private final transient PerftTable table;
+        private final Board.PerftMode mode;
+
+        Subtree(Board board, int depth, int split, PerftTable table, Board.PerftMode mode)
+        {
+            this.board = board;
+            this.depth = depth;
+            this.split = split;
+            this.table = table;
+            this.mode = mode;
+        }
+
+        @Override
+        protected Long compute()
+        {
+            if (depth == 0) return 1L;
+            if (split <= 0 || depth == 1) return board.perft(depth, table, mode); // no task is worth a single leaf
+
+            MoveList moves = new MoveList();
+            board.generateLegalMoves(moves);
+
+            Subtree[] children = new Subtree[moves.size()];
+
+            for (int i = 0; i < moves.size(); i++)
+            {
+                Board child = new Board(board);
+                child.makeMove(moves.get(i));
+                children[i] = new Subtree(child, depth - 1, split - 1, table, mode);
+            }
+
+            invokeAll(children);
+
+            long totalMoves = 0;
+            for (Subtree child : children)
+                totalMoves += child.join();
+
+            return totalMoves;
+        }
+    }
+}
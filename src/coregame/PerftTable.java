@@ -0,0 +1,92 @@
+package coregame;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    Cache of perft results, (zobrist key, depth) -> number of nodes, in a fixed size table several threads can share without locks.
+    An entry is two longs : the key XORed with the data, and the data itself (depth in the top byte, nodes below).
+    If two threads write the same entry at once, the halves don't match the key anymore and the entry is just ignored
+*/
+public final class PerftTable
+{
+    public enum Policy
+    {
+        ALWAYS_REPLACE, // the last result wins
+        DEPTH_PREFERRED // a result only replaces one of the same depth or shallower, deep subtrees are the expensive ones
+    }
+
+    private static final int DEPTH_SHIFT = 56;
+    private static final long NODES_MASK = (1L << DEPTH_SHIFT) - 1;
+
+    private final long[] entries;
+    private final int mask;
+    private final Policy policy;
+    private final LongAdder probes, hits;
+
+    public PerftTable(int megabytes, Policy policy) throws IllegalArgumentException
+    {
+        if (megabytes < 1) throw new IllegalArgumentException("the table needs at least 1MB");
+
+        // a power of two number of 16 bytes entries, at most 2^29 so the array stays indexable
+        long count = Math.min(Long.highestOneBit(megabytes * (1L << 20) / 16), 1L << 29);
+
+        entries = new long[(int) count * 2];
+        mask = (int) count - 1;
+        this.policy = policy;
+        probes = new LongAdder();
+        hits = new LongAdder();
+    }
+
+    /*
+        Number of nodes stored for this position and depth, -1 if there's none
+    */
+    public long probe(long key, int depth)
+    {
+        probes.increment();
+
+        int index = ((int) key & mask) << 1;
+        long data = entries[index + 1];
+
+        if ((entries[index] ^ data) != key || data >>> DEPTH_SHIFT != depth) return -1;
+
+        hits.increment();
+        return data & NODES_MASK;
+    }
+
+    public void store(long key, int depth, long nodes)
+    {
+        int index = ((int) key & mask) << 1;
+
+        if (policy == Policy.DEPTH_PREFERRED && entries[index + 1] >>> DEPTH_SHIFT > depth) return;
+
+        long data = (long) depth << DEPTH_SHIFT | nodes;
+        entries[index] = key ^ data;
+        entries[index + 1] = data;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(entries, 0);
+        probes.reset();
+        hits.reset();
+    }
+
+    public long getSizeInBytes() {
+        return entries.length * 8L;
+    }
+
+    public int getEntries() {
+        return entries.length / 2;
+    }
+
+    public double getHitRate()
+    {
+        long probed = probes.sum();
+        return probed == 0 ? 0 : hits.sum() / (double) probed;
+    }
+
+    public String getInfo() {
+        return String.format("hash table : %dMB, %d entries, %s, hit rate %.1f%%", getSizeInBytes() >> 20, getEntries(), policy, getHitRate() * 100);
+    }
+}
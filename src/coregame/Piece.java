@@ -15,9 +15,13 @@ public class Piece {
     public static final int[] promotionPossibilities = { ROOK, KNIGHT, BISHOP, QUEEN };
     
 
+    /*
+        The piece as a black one ('N' -> 'n'), the color being the WHITE bit (clear for white) it's a single OR.
+        0 (no piece) stays 0
+    */
     public static int removeColorFromData(int piece)
     {
-        return piece + (Character.isUpperCase(piece) ? WHITE : BLACK);
+        return piece == 0 ? 0 : piece | WHITE;
     }
 
     public static boolean sameTeam(int p1, int p2)
@@ -32,7 +36,7 @@ public class Piece {
 
     public static boolean isWhite(int piece)
     {
-        return piece == 0 ? false : (piece & WHITE) == 0;
+        return piece != 0 && (piece & WHITE) == 0;
     }
 
 }
@@ -0,0 +1,99 @@
+package coregame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+    A file of positions encoded by Board.encode, one after the other (Board.ENCODED_SIZE bytes each), mapped in memory :
+    loading the millionth one is as cheap as loading the first, and the file is never parsed.
+    Several threads can load from the same store at once. Written with a PositionStore.Writer
+*/
+public final class PositionStore implements AutoCloseable
+{
+    private static final int SEGMENT_SIZE = 1 << 30; // a mapping can't go past 2GB, a big file is mapped in several parts
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    public PositionStore(Path file) throws IOException
+    {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        long bytes = channel.size();
+        if (bytes % Board.ENCODED_SIZE != 0) throw new IOException(file + " is not a position store");
+
+        size = bytes / Board.ENCODED_SIZE;
+        segments = new MappedByteBuffer[(int) ((bytes + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+
+        for (int i = 0; i < segments.length; i++)
+        {
+            long start = (long) i * SEGMENT_SIZE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, bytes - start));
+        }
+    }
+
+    /*
+        Number of positions in the store
+    */
+    public long size() {
+        return size;
+    }
+
+    /*
+        Loads the position at index on the board, its previous moves can't be undone anymore
+    */
+    public void load(long index, Board board) throws IndexOutOfBoundsException
+    {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("no position " + index + " in a store of " + size);
+
+        long offset = index * Board.ENCODED_SIZE;
+        board.loadEncoded(segments[(int) (offset / SEGMENT_SIZE)], (int) (offset % SEGMENT_SIZE)); // segments hold whole positions
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /*
+        Appends positions at the end of a store file (created if needed), through a buffer so it's a few writes per thousand positions
+    */
+    public static final class Writer implements AutoCloseable
+    {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(Board.ENCODED_SIZE * 2048);
+
+        public Writer(Path file) throws IOException
+        {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        public void add(Board board) throws IOException
+        {
+            if (!buffer.hasRemaining()) flush();
+
+            board.encode(buffer, buffer.position());
+            buffer.position(buffer.position() + Board.ENCODED_SIZE);
+        }
+
+        public void flush() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flush();
+            channel.close();
+        }
+    }
+}
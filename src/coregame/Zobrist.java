@@ -0,0 +1,68 @@
+package coregame;
+
+/*
+    Random keys XORed together to give a position its 64 bits identity, the same position always gets the same key
+*/
+final class Zobrist
+{
+    private static final long[][] PIECES = new long['r' + 1][]; // indexed by the piece itself, like the board bitboards
+    private static final long[] CASTLE = new long[16], EN_PASSANT = new long[8];
+    private static final long SIDE;
+
+    private static long seed = 0x2545F4914F6CDD1DL; // fixed, so keys stay the same from one run to another
+
+    private Zobrist() {}
+
+    static long piece(int piece, int square) {
+        return PIECES[piece][square];
+    }
+
+    /*
+        Key of a whole set of castle rights (bit i for castlingNotation.charAt(i))
+    */
+    static long castle(int rights) {
+        return CASTLE[rights];
+    }
+
+    /*
+        Only the file matters, the rank is given by the side to move
+    */
+    static long enPassant(int square) {
+        return EN_PASSANT[square % 8];
+    }
+
+    /*
+        XORed in when black is to move
+    */
+    static long side() {
+        return SIDE;
+    }
+
+    private static long random()
+    {
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return seed;
+    }
+
+    static
+    {
+        for (char piece : "KQRBNPkqrbnp".toCharArray())
+        {
+            PIECES[piece] = new long[64];
+            for (int square = 0; square < 64; square++)
+                PIECES[piece][square] = random();
+        }
+
+        long[] rights = { random(), random(), random(), random() };
+        for (int mask = 0; mask < 16; mask++)
+            for (int i = 0; i < 4; i++)
+                if ((mask & 1 << i) != 0) CASTLE[mask] ^= rights[i];
+
+        for (int file = 0; file < 8; file++)
+            EN_PASSANT[file] = random();
+
+        SIDE = random();
+    }
+}
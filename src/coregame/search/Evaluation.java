@@ -0,0 +1,164 @@
+package coregame.search;
+
+import coregame.Board;
+import coregame.Piece;
+
+/*
+    Static evaluation in centipawns : material plus a piece-square table per piece, blended between the middle game
+    and the end game tables as the pieces leave the board
+*/
+public final class Evaluation
+{
+    public static final int
+        PAWN_VALUE = 100,
+        KNIGHT_VALUE = 320,
+        BISHOP_VALUE = 330,
+        ROOK_VALUE = 500,
+        QUEEN_VALUE = 900,
+        KING_VALUE = 20000;
+
+    private static final int[] values = new int['r' + 1]; // indexed by the piece without its color
+
+    private static final int[] phaseWeights = new int['r' + 1]; // 24 when every minor, rook and queen is on the board
+    private static final int TOTAL_PHASE = 24;
+
+    // from white's point of view, a8 first like the board : black reads them upside down (square ^ 56)
+    private static final int[]
+        PAWN_TABLE = {
+              0,   0,   0,   0,   0,   0,   0,   0,
+             50,  50,  50,  50,  50,  50,  50,  50,
+             10,  10,  20,  30,  30,  20,  10,  10,
+              5,   5,  10,  25,  25,  10,   5,   5,
+              0,   0,   0,  20,  20,   0,   0,   0,
+              5,  -5, -10,   0,   0, -10,  -5,   5,
+              5,  10,  10, -20, -20,  10,  10,   5,
+              0,   0,   0,   0,   0,   0,   0,   0
+        },
+        KNIGHT_TABLE = {
+            -50, -40, -30, -30, -30, -30, -40, -50,
+            -40, -20,   0,   0,   0,   0, -20, -40,
+            -30,   0,  10,  15,  15,  10,   0, -30,
+            -30,   5,  15,  20,  20,  15,   5, -30,
+            -30,   0,  15,  20,  20,  15,   0, -30,
+            -30,   5,  10,  15,  15,  10,   5, -30,
+            -40, -20,   0,   5,   5,   0, -20, -40,
+            -50, -40, -30, -30, -30, -30, -40, -50
+        },
+        BISHOP_TABLE = {
+            -20, -10, -10, -10, -10, -10, -10, -20,
+            -10,   0,   0,   0,   0,   0,   0, -10,
+            -10,   0,   5,  10,  10,   5,   0, -10,
+            -10,   5,   5,  10,  10,   5,   5, -10,
+            -10,   0,  10,  10,  10,  10,   0, -10,
+            -10,  10,  10,  10,  10,  10,  10, -10,
+            -10,   5,   0,   0,   0,   0,   5, -10,
+            -20, -10, -10, -10, -10, -10, -10, -20
+        },
+        ROOK_TABLE = {
+              0,   0,   0,   0,   0,   0,   0,   0,
+              5,  10,  10,  10,  10,  10,  10,   5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+              0,   0,   0,   5,   5,   0,   0,   0
+        },
+        QUEEN_TABLE = {
+            -20, -10, -10,  -5,  -5, -10, -10, -20,
+            -10,   0,   0,   0,   0,   0,   0, -10,
+            -10,   0,   5,   5,   5,   5,   0, -10,
+             -5,   0,   5,   5,   5,   5,   0,  -5,
+              0,   0,   5,   5,   5,   5,   0,  -5,
+            -10,   5,   5,   5,   5,   5,   0, -10,
+            -10,   0,   5,   0,   0,   0,   0, -10,
+            -20, -10, -10,  -5,  -5, -10, -10, -20
+        },
+        KING_MIDDLE_GAME_TABLE = {
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -20, -30, -30, -40, -40, -30, -30, -20,
+            -10, -20, -20, -20, -20, -20, -20, -10,
+             20,  20,   0,   0,   0,   0,  20,  20,
+             20,  30,  10,   0,   0,  10,  30,  20
+        },
+        KING_END_GAME_TABLE = {
+            -50, -40, -30, -20, -20, -30, -40, -50,
+            -30, -20, -10,   0,   0, -10, -20, -30,
+            -30, -10,  20,  30,  30,  20, -10, -30,
+            -30, -10,  30,  40,  40,  30, -10, -30,
+            -30, -10,  30,  40,  40,  30, -10, -30,
+            -30, -10,  20,  30,  30,  20, -10, -30,
+            -30, -30,   0,   0,   0,   0, -30, -30,
+            -50, -30, -30, -30, -30, -30, -30, -50
+        };
+
+    private static final int[][] tables = new int['r' + 1][]; // indexed by the piece without its color, the king is apart
+
+    private static final int[] pieceTypes = { Piece.PAWN, Piece.KNIGHT, Piece.BISHOP, Piece.ROOK, Piece.QUEEN };
+
+    static
+    {
+        values[Piece.PAWN] = PAWN_VALUE;
+        values[Piece.KNIGHT] = KNIGHT_VALUE;
+        values[Piece.BISHOP] = BISHOP_VALUE;
+        values[Piece.ROOK] = ROOK_VALUE;
+        values[Piece.QUEEN] = QUEEN_VALUE;
+        values[Piece.KING] = KING_VALUE;
+
+        phaseWeights[Piece.KNIGHT] = 1;
+        phaseWeights[Piece.BISHOP] = 1;
+        phaseWeights[Piece.ROOK] = 2;
+        phaseWeights[Piece.QUEEN] = 4;
+
+        tables[Piece.PAWN] = PAWN_TABLE;
+        tables[Piece.KNIGHT] = KNIGHT_TABLE;
+        tables[Piece.BISHOP] = BISHOP_TABLE;
+        tables[Piece.ROOK] = ROOK_TABLE;
+        tables[Piece.QUEEN] = QUEEN_TABLE;
+    }
+
+    private Evaluation() {}
+
+    /*
+        Value of a piece of any color, 0 for an empty square
+    */
+    public static int value(int piece)
+    {
+        return piece == 0 ? 0 : values[Piece.removeColorFromData(piece)];
+    }
+
+    /*
+        Score of the position for the side to move, positive if he's better
+    */
+    public static int evaluate(Board board)
+    {
+        int score = 0, phase = 0;
+
+        for (int type : pieceTypes)
+        {
+            for (long pieces = board.getPieces(type - Piece.WHITE); pieces != 0; pieces &= pieces - 1)
+            {
+                score += values[type] + tables[type][Long.numberOfTrailingZeros(pieces)];
+                phase += phaseWeights[type];
+            }
+
+            for (long pieces = board.getPieces(type); pieces != 0; pieces &= pieces - 1)
+            {
+                score -= values[type] + tables[type][Long.numberOfTrailingZeros(pieces) ^ 56];
+                phase += phaseWeights[type];
+            }
+        }
+
+        // the king hides during the middle game and comes out once the queens and rooks are gone
+        phase = Math.min(phase, TOTAL_PHASE);
+        int whiteKing = board.getWhiteKingSquare(), blackKing = board.getBlackKingSquare() ^ 56;
+
+        score += (phase * (KING_MIDDLE_GAME_TABLE[whiteKing] - KING_MIDDLE_GAME_TABLE[blackKing])
+                + (TOTAL_PHASE - phase) * (KING_END_GAME_TABLE[whiteKing] - KING_END_GAME_TABLE[blackKing])) / TOTAL_PHASE;
+
+        return board.whitePlaying() ? score : -score;
+    }
+}
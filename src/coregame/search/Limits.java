@@ -0,0 +1,62 @@
+package coregame.search;
+
+/*
+    When a search has to stop : at a depth, after a number of nodes or after some time, whichever comes first.
+    0 means no limit, at least the first depth is always searched so there is a move to play.
+    An infinite search (go infinite, go ponder) is one whose result is only wanted once it's stopped, even if it ends before
+*/
+public final class Limits
+{
+    public static final int MAX_DEPTH = 100;
+
+    private final int depth;
+    private final long nodes, timeMillis;
+    private final boolean infinite;
+
+    public Limits(int depth, long nodes, long timeMillis) throws IllegalArgumentException
+    {
+        this(depth, nodes, timeMillis, false);
+    }
+
+    public Limits(int depth, long nodes, long timeMillis, boolean infinite) throws IllegalArgumentException
+    {
+        if (depth < 0 || nodes < 0 || timeMillis < 0) throw new IllegalArgumentException("limits can't be negative");
+
+        this.depth = depth == 0 ? MAX_DEPTH : Math.min(depth, MAX_DEPTH);
+        this.nodes = nodes == 0 ? Long.MAX_VALUE : nodes;
+        this.timeMillis = timeMillis == 0 ? Long.MAX_VALUE : timeMillis;
+        this.infinite = infinite;
+    }
+
+    public static Limits depth(int depth) {
+        return new Limits(depth, 0, 0);
+    }
+
+    public static Limits nodes(long nodes) {
+        return new Limits(0, nodes, 0);
+    }
+
+    public static Limits time(long timeMillis) {
+        return new Limits(0, 0, timeMillis);
+    }
+
+    public static Limits infinite() {
+        return new Limits(0, 0, 0, true);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public boolean isInfinite() {
+        return infinite;
+    }
+}
@@ -0,0 +1,112 @@
+package coregame.search;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import coregame.Board;
+
+/*
+    Lazy SMP : every thread searches the same position on its own copy of the board, sharing only the TranspositionTable.
+    What a thread finds is picked up by the others through the table, and half of the helpers search one depth deeper
+    so they don't all walk the same tree at the same time. The calling thread is the main one, its result is the answer
+*/
+public final class ParallelSearch implements AutoCloseable
+{
+    private final ExecutorService pool;
+    private final Search main;
+    private final Search[] helpers;
+    private final TranspositionTable table;
+
+    public ParallelSearch(int threads, TranspositionTable table) throws IllegalArgumentException
+    {
+        if (threads < 1) throw new IllegalArgumentException("threads must be at least 1");
+
+        pool = threads > 1 ? Executors.newFixedThreadPool(threads - 1) : null;
+        main = new Search(table);
+        helpers = new Search[threads - 1];
+        this.table = table;
+
+        for (int i = 0; i < helpers.length; i++)
+            helpers[i] = new Search(table);
+    }
+
+    public int getThreads() {
+        return helpers.length + 1;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /*
+        Same as Search.search, limits only apply to the main thread and the helpers stop with it.
+        The reported nodes are the ones of every thread. A stop() that came before is kept, see resume()
+    */
+    public SearchInfo search(Board position, Limits limits, Consumer<SearchInfo> listener)
+    {
+        table.newSearch();
+
+        Future<?>[] running = new Future<?>[helpers.length];
+
+        for (int i = 0; i < helpers.length; i++)
+        {
+            Search helper = helpers[i];
+            Board copy = new Board(position); // copied now, position may change as soon as we return
+            int depthSkip = (i + 1) % 2;
+
+            helper.resume();
+            running[i] = pool.submit(() -> helper.iterate(copy, Limits.infinite(), null, depthSkip));
+        }
+
+        SearchInfo best = main.iterate(position, limits, listener == null ? null : info -> listener.accept(info.withNodes(getNodes())), 0);
+
+        for (Search helper : helpers)
+            helper.stop();
+
+        for (Future<?> helper : running)
+        {
+            try {
+                helper.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return best == null ? null : best.withNodes(getNodes());
+    }
+
+    /*
+        Stops the running search from any thread, it returns its last finished depth
+    */
+    public void stop()
+    {
+        main.stop();
+    }
+
+    /*
+        Clears a stop() before the next search, see Search.resume()
+    */
+    public void resume()
+    {
+        main.resume();
+    }
+
+    private long getNodes()
+    {
+        long nodes = main.getNodes();
+
+        for (Search helper : helpers)
+            nodes += helper.getNodes();
+
+        return nodes;
+    }
+
+    @Override
+    public void close()
+    {
+        if (pool != null) pool.shutdown();
+    }
+}
@@ -0,0 +1,404 @@
+package coregame.search;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import coregame.Board;
+import coregame.Move;
+import coregame.MoveList;
+import coregame.Piece;
+
+/*
+    Finds the best move of a position : iterative deepening over a principal variation search (alpha-beta where every move
+    after the first one is only proven worse with a null window), ending in a quiescence search so no capture is left hanging.
+    Moves are tried in the order principal variation or hash move, captures (most valuable victim by least valuable attacker),
+    killers, history. What is found goes in a TranspositionTable, several searches can share one (see ParallelSearch).
+
+    The board given to search is copied, it can be played on while searching. One Search is used by one thread at a time,
+    stop() can be called from anywhere
+*/
+public final class Search
+{
+    public static final int
+        MATE = 30000, // mate right now, mate in n plies is MATE - n
+        INFINITY = 32000;
+
+    private static final int MAX_PLY = 128; // depth plus quiescence and check extensions never go further
+
+    private static final int
+        PV_SCORE = 1 << 30,
+        CAPTURE_SCORE = 1 << 28,
+        KILLER_SCORE = 1 << 26, // second killer just under it
+        HISTORY_LIMIT = 1 << 25; // history is halved beyond it, it stays under the killers
+
+    private static final int[] attackerOrder = new int['r' + 1]; // indexed by the piece without its color, pawn first
+
+    static
+    {
+        String order = "pnbrqk";
+
+        for (int i = 0; i < order.length(); i++)
+            attackerOrder[order.charAt(i)] = i + 1;
+    }
+
+    private Board board;
+    private final TranspositionTable table;
+
+    private final MoveList[] moveLists = new MoveList[MAX_PLY];
+    private final int[][] moveScores = new int[MAX_PLY][256];
+    private final int[][] killers = new int[MAX_PLY][2]; // quiet moves that caused a cutoff at this ply
+    private final int[][] history = new int[64][64]; // from, to : how often this quiet move caused a cutoff, weighted by depth
+
+    // triangular principal variation : pv[ply] holds the best line found from ply, pvLength[ply] where it ends
+    private final int[][] pv = new int[MAX_PLY][MAX_PLY];
+    private final int[] pvLength = new int[MAX_PLY];
+    private int[] previousPv = new int[0]; // line of the last iteration, tried first
+
+    private long nodes, maxNodes, deadline;
+    private int selectiveDepth;
+    private volatile boolean stopped;
+    private boolean aborted, canAbort;
+
+    public Search()
+    {
+        this(new TranspositionTable(16));
+    }
+
+    public Search(TranspositionTable table)
+    {
+        this.table = table;
+
+        for (int i = 0; i < MAX_PLY; i++)
+            moveLists[i] = new MoveList();
+    }
+
+    /*
+        Searches deeper and deeper until a limit is reached, listener (can be null) gets every finished depth.
+        Returns the last finished depth, its principal variation is empty if there is no legal move.
+        A stop() that came before is kept, the search returns right after its first depth : see resume()
+    */
+    public SearchInfo search(Board position, Limits limits, Consumer<SearchInfo> listener)
+    {
+        table.newSearch();
+
+        return iterate(position, limits, listener, 0);
+    }
+
+    /*
+        The iterative deepening itself, every depth searched depthSkip deeper : the helpers of a parallel search don't all
+        look at the same depth at the same time. stop() before calling it is kept, see resume()
+    */
+    SearchInfo iterate(Board position, Limits limits, Consumer<SearchInfo> listener, int depthSkip)
+    {
+        long beginning = System.nanoTime();
+
+        board = new Board(position);
+        nodes = 0;
+        maxNodes = limits.getNodes();
+        deadline = limits.getTimeMillis() == Long.MAX_VALUE ? Long.MAX_VALUE : beginning + limits.getTimeMillis() * 1_000_000;
+        aborted = false;
+        previousPv = new int[0];
+
+        for (int[] killer : killers) Arrays.fill(killer, 0);
+        for (int[] fromSquare : history) Arrays.fill(fromSquare, 0);
+
+        SearchInfo best = null;
+
+        for (int depth = 1; depth <= limits.getDepth(); depth++)
+        {
+            canAbort = depth > 1; // the first depth always finishes, so there is a move to play
+            selectiveDepth = 0;
+
+            int score = search(Math.min(depth + depthSkip, Limits.MAX_DEPTH), 0, -INFINITY, INFINITY, true);
+
+            if (aborted) break; // unfinished, the last depth is worth more
+
+            long time = (System.nanoTime() - beginning) / 1_000_000;
+            previousPv = Arrays.copyOf(pv[0], pvLength[0]);
+            best = new SearchInfo(depth, selectiveDepth, score, nodes, time, previousPv.clone());
+
+            if (listener != null) listener.accept(best);
+
+            if (previousPv.length == 0 || (best.isMate() && Math.abs(best.getMateIn()) * 2 <= depth)) break; // nothing more to find
+            if (limits.getTimeMillis() != Long.MAX_VALUE && time * 2 > limits.getTimeMillis()) break; // the next depth won't finish in time
+        }
+
+        return best;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /*
+        Asks a running search to stop as soon as possible, it returns its last finished depth
+    */
+    public void stop()
+    {
+        stopped = true;
+    }
+
+    /*
+        Clears a stop() before the next search, on the thread that could stop it : done by the searching thread,
+        a stop() sent before it started would be lost
+    */
+    public void resume()
+    {
+        stopped = false;
+    }
+
+    /*
+        Nodes of the running (or last) search, read from another thread it's only an approximation
+    */
+    long getNodes()
+    {
+        return nodes;
+    }
+
+    private int search(int depth, int ply, int alpha, int beta, boolean followPv)
+    {
+        pvLength[ply] = ply;
+        selectiveDepth = Math.max(selectiveDepth, ply);
+
+        // once is enough for a repetition, if it's good for us it will be good the third time too
+        if (ply > 0 && (board.repetitions() > 0 || board.insufficientMaterial())) return 0;
+
+        boolean inCheck = board.inCheck();
+
+        // a mate on the hundredth half move is still a mate, like in Board.gameState()
+        if (ply > 0 && board.fiftyMoveRule() && (!inCheck || !board.checkMate())) return 0;
+
+        if (inCheck) depth++; // a check is never the end of the line
+
+        if (depth <= 0) return quiescence(ply, alpha, beta);
+
+        nodes++;
+        if (outOfLimits()) return 0;
+        if (ply >= MAX_PLY - 1) return Evaluation.evaluate(board);
+
+        long entry = table.probe(board.getZobristKey());
+        int hashMove = entry == 0 ? 0 : TranspositionTable.move(entry);
+
+        // already searched deep enough, only trusted out of the principal variation so it stays complete
+        if (entry != 0 && ply > 0 && beta - alpha == 1 && TranspositionTable.depth(entry) >= depth)
+        {
+            int score = TranspositionTable.score(entry, ply);
+            int bound = TranspositionTable.bound(entry);
+
+            if (bound == TranspositionTable.EXACT
+             || (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+             || (bound == TranspositionTable.UPPER_BOUND && score <= alpha)) return score;
+        }
+
+        MoveList moves = moveLists[ply];
+        board.generateLegalMoves(moves);
+
+        if (moves.isEmpty()) return inCheck ? -MATE + ply : 0; // mated, or stalemate
+
+        followPv &= ply < previousPv.length;
+        int pvMove = followPv ? previousPv[ply] : hashMove;
+        scoreMoves(moves, ply, pvMove);
+
+        int originalAlpha = alpha, bestScore = -INFINITY, bestMove = 0;
+
+        for (int i = 0; i < moves.size(); i++)
+        {
+            int move = pickMove(moves, ply, i);
+            int score;
+
+            board.makeMove(move);
+
+            if (i == 0)
+                score = -search(depth - 1, ply + 1, -beta, -alpha, followPv && move == pvMove);
+            else
+            {
+                // the first move is supposed to be the best, just prove this one isn't better
+                score = -search(depth - 1, ply + 1, -alpha - 1, -alpha, false);
+
+                if (score > alpha && score < beta)
+                    score = -search(depth - 1, ply + 1, -beta, -alpha, false);
+            }
+
+            board.unMakeMove();
+
+            if (aborted) return 0;
+
+            if (score > bestScore)
+            {
+                bestScore = score;
+
+                if (score > alpha)
+                {
+                    alpha = score;
+                    bestMove = move;
+                    updatePv(ply, move);
+
+                    if (score >= beta)
+                    {
+                        if (!Move.is(move, Move.CAPTURE) && Move.promotion(move) == 0) rememberCutoff(move, ply, depth);
+                        break;
+                    }
+                }
+            }
+        }
+
+        int bound = bestScore >= beta ? TranspositionTable.LOWER_BOUND : bestScore > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER_BOUND;
+        table.store(board.getZobristKey(), bestMove, bestScore, depth, bound, ply);
+
+        return bestScore;
+    }
+
+    /*
+        Only captures and promotions to a queen, until the position is quiet : the side to move can also stop capturing
+        and keep the static evaluation. In check every move is looked at, there is no standing still
+    */
+    private int quiescence(int ply, int alpha, int beta)
+    {
+        pvLength[ply] = ply;
+        selectiveDepth = Math.max(selectiveDepth, ply);
+
+        nodes++;
+        if (outOfLimits()) return 0;
+        if (ply >= MAX_PLY - 1) return Evaluation.evaluate(board);
+
+        boolean inCheck = board.inCheck();
+        int bestScore = -INFINITY;
+
+        if (!inCheck)
+        {
+            bestScore = Evaluation.evaluate(board);
+            if (bestScore >= beta) return bestScore;
+            if (bestScore > alpha) alpha = bestScore;
+        }
+
+        MoveList moves = moveLists[ply];
+        board.generateLegalMoves(moves);
+
+        if (inCheck && moves.isEmpty()) return -MATE + ply;
+
+        if (!inCheck)
+        {
+            int kept = 0;
+
+            for (int i = 0; i < moves.size(); i++)
+            {
+                int move = moves.get(i);
+                if (Move.is(move, Move.CAPTURE) || Piece.removeColorFromData(Move.promotion(move)) == Piece.QUEEN) moves.set(kept++, move);
+            }
+
+            moves.truncate(kept);
+        }
+
+        scoreMoves(moves, ply, 0);
+
+        for (int i = 0; i < moves.size(); i++)
+        {
+            int move = pickMove(moves, ply, i);
+
+            board.makeMove(move);
+            int score = -quiescence(ply + 1, -beta, -alpha);
+            board.unMakeMove();
+
+            if (aborted) return 0;
+
+            if (score > bestScore)
+            {
+                bestScore = score;
+
+                if (score > alpha)
+                {
+                    alpha = score;
+                    updatePv(ply, move);
+
+                    if (score >= beta) break;
+                }
+            }
+        }
+
+        return bestScore;
+    }
+
+    /*
+        Checked at every node, the clock only every 1024 nodes
+    */
+    private boolean outOfLimits()
+    {
+        if (!canAbort) return false;
+
+        if (stopped || nodes >= maxNodes || ((nodes & 1023) == 0 && System.nanoTime() >= deadline))
+            aborted = true;
+
+        return aborted;
+    }
+
+    private void scoreMoves(MoveList moves, int ply, int pvMove)
+    {
+        int[] scores = moveScores[ply];
+
+        for (int i = 0; i < moves.size(); i++)
+        {
+            int move = moves.get(i);
+            int from = Move.from(move), to = Move.to(move);
+
+            if (move == pvMove)
+                scores[i] = PV_SCORE;
+            else if (Move.is(move, Move.CAPTURE))
+            {
+                int victim = Move.is(move, Move.EN_PASSANT) ? Piece.PAWN : board.get(to);
+                scores[i] = CAPTURE_SCORE + Evaluation.value(victim) * 8 - attackerOrder[Piece.removeColorFromData(board.get(from))];
+            }
+            else if (Move.promotion(move) != 0)
+                scores[i] = CAPTURE_SCORE + Evaluation.value(Move.promotion(move)) - Evaluation.PAWN_VALUE; // a queen promotion is worth taking a knight
+            else if (move == killers[ply][0])
+                scores[i] = KILLER_SCORE;
+            else if (move == killers[ply][1])
+                scores[i] = KILLER_SCORE - 1;
+            else
+                scores[i] = history[from][to];
+        }
+    }
+
+    /*
+        Brings the best scored move left to index, so a cutoff doesn't pay for sorting the whole list
+    */
+    private int pickMove(MoveList moves, int ply, int index)
+    {
+        int[] scores = moveScores[ply];
+        int best = index;
+
+        for (int i = index + 1; i < moves.size(); i++)
+            if (scores[i] > scores[best]) best = i;
+
+        int move = moves.get(best), score = scores[best];
+
+        moves.set(best, moves.get(index));
+        scores[best] = scores[index];
+        moves.set(index, move);
+        scores[index] = score;
+
+        return move;
+    }
+
+    private void updatePv(int ply, int move)
+    {
+        pv[ply][ply] = move;
+        System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+        pvLength[ply] = Math.max(pvLength[ply + 1], ply + 1);
+    }
+
+    private void rememberCutoff(int move, int ply, int depth)
+    {
+        if (killers[ply][0] != move)
+        {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+
+        int from = Move.from(move), to = Move.to(move);
+        history[from][to] += depth * depth;
+
+        if (history[from][to] > HISTORY_LIMIT)
+            for (int[] fromSquare : history)
+                for (int i = 0; i < 64; i++) fromSquare[i] /= 2;
+    }
+}
@@ -0,0 +1,99 @@
+package coregame.search;
+
+import coregame.Move;
+
+/*
+    What a search found once a depth is done : score for the side to move, principal variation and speed
+*/
+public final class SearchInfo
+{
+    private final int depth, selectiveDepth, score;
+    private final long nodes, timeMillis;
+    private final int[] principalVariation;
+
+    SearchInfo(int depth, int selectiveDepth, int score, long nodes, long timeMillis, int[] principalVariation)
+    {
+        this.depth = depth;
+        this.selectiveDepth = selectiveDepth;
+        this.score = score;
+        this.nodes = nodes;
+        this.timeMillis = timeMillis;
+        this.principalVariation = principalVariation;
+    }
+
+    /*
+        Same search with another node count, the nodes of every thread of a parallel search for instance
+    */
+    SearchInfo withNodes(long nodes)
+    {
+        return new SearchInfo(depth, selectiveDepth, score, nodes, timeMillis, principalVariation);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /*
+        Deepest ply reached, quiescence included
+    */
+    public int getSelectiveDepth() {
+        return selectiveDepth;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public long getNodesPerSecond() {
+        return nodes * 1000 / Math.max(1, timeMillis);
+    }
+
+    public int[] getPrincipalVariation() {
+        return principalVariation.clone();
+    }
+
+    /*
+        First move of the principal variation, 0 if there is no legal move
+    */
+    public int getBestMove() {
+        return principalVariation.length == 0 ? 0 : principalVariation[0];
+    }
+
+    public boolean isMate() {
+        return Math.abs(score) >= Search.MATE - Limits.MAX_DEPTH * 2;
+    }
+
+    /*
+        Moves until mate, negative if we're the one getting mated
+    */
+    public int getMateIn() {
+        return score > 0 ? (Search.MATE - score + 1) / 2 : -(Search.MATE + score) / 2;
+    }
+
+    /*
+        Same words as an UCI info line : depth 6 seldepth 14 score cp 35 nodes 123456 nps 1000000 time 123 pv e2e4 e7e5
+    */
+    @Override
+    public String toString()
+    {
+        StringBuilder info = new StringBuilder();
+
+        info.append("depth ").append(depth).append(" seldepth ").append(selectiveDepth);
+        info.append(isMate() ? " score mate " + getMateIn() : " score cp " + score);
+        info.append(" nodes ").append(nodes).append(" nps ").append(getNodesPerSecond()).append(" time ").append(timeMillis);
+        info.append(" pv");
+
+        for (int move : principalVariation)
+            info.append(' ').append(Move.toString(move));
+
+        return info.toString();
+    }
+}
@@ -0,0 +1,140 @@
+package coregame.search;
+
+import java.util.Arrays;
+
+/*
+    What the search already knows about a position : best move, score, depth and whether the score is exact or only a bound.
+    Fixed size and shared by every thread of a parallel search without locks, the same way as coregame.PerftTable :
+    an entry is two longs, the zobrist key XORed with the data and the data itself, a torn write just doesn't match anymore.
+
+    data : move (bits 0-22), score + 32768 (23-38), depth (39-46), bound (47-48), generation (49-56)
+*/
+public final class TranspositionTable
+{
+    public static final int
+        EXACT = 1,
+        LOWER_BOUND = 2, // the score is at least this, a move was good enough for a cutoff
+        UPPER_BOUND = 3; // the score is at most this, no move raised alpha
+
+    private static final int
+        SCORE_SHIFT = 23,
+        DEPTH_SHIFT = 39,
+        BOUND_SHIFT = 47,
+        GENERATION_SHIFT = 49;
+
+    private final long[] entries;
+    private final int mask;
+    private volatile int generation; // one per search, older entries get replaced first
+
+    public TranspositionTable(int megabytes) throws IllegalArgumentException
+    {
+        if (megabytes < 1) throw new IllegalArgumentException("the table needs at least 1MB");
+
+        long count = Math.min(Long.highestOneBit(megabytes * (1L << 20) / 16), 1L << 29);
+
+        entries = new long[(int) count * 2];
+        mask = (int) count - 1;
+    }
+
+    /*
+        The data stored for this position, 0 if there's none. Read it with the static getters
+    */
+    public long probe(long key)
+    {
+        int index = ((int) key & mask) << 1;
+        long data = entries[index + 1];
+
+        return (entries[index] ^ data) == key ? data : 0;
+    }
+
+    /*
+        score is relative to the root, mates are stored relative to the position so they stay right from another path
+    */
+    public void store(long key, int move, int score, int depth, int bound, int ply)
+    {
+        int index = ((int) key & mask) << 1;
+        long old = entries[index + 1];
+        boolean samePosition = (entries[index] ^ old) == key;
+
+        // a deeper entry of the same search is kept, unless it's about another position
+        if (samePosition && bound != EXACT && depth < depth(old) - 2) return;
+        if (!samePosition && old != 0 && generation(old) == generation && depth < depth(old)) return;
+
+        if (move == 0 && samePosition) move = move(old); // a fail low has no best move, the old one is still good for ordering
+
+        if (score >= Search.MATE - Limits.MAX_DEPTH * 2) score += ply;
+        else if (score <= -Search.MATE + Limits.MAX_DEPTH * 2) score -= ply;
+
+        long data = move
+                  | (long) (score + 32768) << SCORE_SHIFT
+                  | (long) depth << DEPTH_SHIFT
+                  | (long) bound << BOUND_SHIFT
+                  | (long) (generation & 255) << GENERATION_SHIFT;
+
+        entries[index] = key ^ data;
+        entries[index + 1] = data;
+    }
+
+    public static int move(long data) {
+        return (int) (data & ((1 << SCORE_SHIFT) - 1));
+    }
+
+    /*
+        Score of the entry seen from the root, ply being the distance between the root and the position
+    */
+    public static int score(long data, int ply)
+    {
+        int score = (int) ((data >>> SCORE_SHIFT) & 0xFFFF) - 32768;
+
+        if (score >= Search.MATE - Limits.MAX_DEPTH * 2) return score - ply;
+        if (score <= -Search.MATE + Limits.MAX_DEPTH * 2) return score + ply;
+        return score;
+    }
+
+    public static int depth(long data) {
+        return (int) ((data >>> DEPTH_SHIFT) & 255);
+    }
+
+    public static int bound(long data) {
+        return (int) ((data >>> BOUND_SHIFT) & 3);
+    }
+
+    private static int generation(long data) {
+        return (int) ((data >>> GENERATION_SHIFT) & 255);
+    }
+
+    /*
+        Called before each new search, the entries of the previous ones are replaced first
+    */
+    public void newSearch()
+    {
+        generation = (generation + 1) & 255;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(entries, 0);
+        generation = 0;
+    }
+
+    public long getSizeInBytes() {
+        return entries.length * 8L;
+    }
+
+    public int getEntries() {
+        return entries.length / 2;
+    }
+
+    /*
+        Part of the table filled by the current search, in per mill like UCI's hashfull, from the first thousand entries
+    */
+    public int getUsage()
+    {
+        int used = 0, sampled = Math.min(1000, getEntries());
+
+        for (int i = 0; i < sampled; i++)
+            if (entries[2 * i + 1] != 0 && generation(entries[2 * i + 1]) == generation) used++;
+
+        return used * 1000 / sampled;
+    }
+}
@@ -1,31 +1,50 @@
 package main;
 
+import java.util.function.Consumer;
+
 import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import coregame.Board;
+import coregame.DivideResult;
+import coregame.Move;
+import coregame.ParallelPerft;
+import coregame.PerftTable;
+import coregame.search.Limits;
+import coregame.search.Search;
+import coregame.search.SearchInfo;
 import testdata.Data;
 
-public final class App implements Runnable
+public final class App
 {
 
-    private boolean running;
+    private static final int FRAME_DELAY = 1000 / 60; // in ms, at most 60 frames per second
 
     private static JFrame gameFrame;
     private static Panel gamePanel;
 
     private static App sub;
-    private static Thread beta;
+    private static Timer beta; // repaints the panel on the event thread, only when something changed since the last frame
 
     private static Board board;
 
-    private App()
+    // the computer opponent's search, kept from one move to the next so its table still knows the positions it went through
+    private static final Search search = new Search();
+
+    private static volatile long computerTime; // thinking time of the computer opponent in ms, 0 when two humans play
+    private static volatile boolean computerThinking; // the mouse can't play meanwhile
+
+    private App() {}
+
+    private static boolean running()
     {
-        running = true;
+        return beta != null && beta.isRunning();
     }
 
     static void build(String fen) throws IllegalArgumentException
     {
-        if (beta != null && beta.isAlive())
+        if (running())
         {
             System.out.println("Rebuilding on existing app, closing first.");
             App.close();
@@ -33,6 +52,7 @@ public final class App implements Runnable
 
         try {
             sub = new App();
+            search.getTable().clear(); // a new game, nothing the table knows will come up again
             gamePanel = new Panel(fen == null || fen.isEmpty() ? Data.positions[0] : fen, sub);
             board = gamePanel.getBoard(sub);
         } catch (IllegalArgumentException e) {
@@ -40,7 +60,7 @@ public final class App implements Runnable
             throw new IllegalArgumentException();
         }
 
-        beta = new Thread(sub);
+        beta = new Timer(FRAME_DELAY, e -> gamePanel.repaintIfDirty());
         
         gameFrame = new JFrame("chess");
         gameFrame.add(gamePanel);
@@ -76,52 +96,127 @@ public final class App implements Runnable
 
     static void requestUndo()
     {
-        if (board != null) board.unMakeMove();
+        if (board != null)
+        {
+            board.unMakeMove();
+            gamePanel.boardChanged();
+        }
+    }
+
+    /*
+        The computer plays the side to move now and answers every move after that, until millis is 0
+    */
+    static void setComputerOpponent(long millis)
+    {
+        computerTime = millis;
+
+        if (millis > 0)
+            SwingUtilities.invokeLater(App::computerMove);
     }
 
-    static void performanceTest(int depth, int p, boolean quiet, boolean startMessage)
+    /*
+        On the event thread : the search runs on a copy of the board in a virtual thread, its move is played back on the
+        event thread unless the board changed in between (an undo for instance)
+    */
+    private static void computerMove()
+    {
+        if (computerTime == 0 || computerThinking || !running()) return;
+
+        Board snapshot = new Board(board);
+        long time = computerTime;
+        computerThinking = true;
+
+        Thread.ofVirtual().start(() -> {
+            SearchInfo info = search.search(snapshot, Limits.time(time), null);
+
+            SwingUtilities.invokeLater(() -> {
+                computerThinking = false;
+
+                if (info.getBestMove() == 0 || board == null || board.getZobristKey() != snapshot.getZobristKey()) return;
+
+                System.out.printf("computer plays %s (%s)\n", Move.toString(info.getBestMove()), info);
+                gamePanel.playMove(info.getBestMove());
+            });
+        });
+    }
+
+    /*
+        With more than one thread, the root moves are counted in parallel and the serial run is timed too to print the speedup.
+        table can be null, otherwise it's cleared and shared by every thread
+    */
+    static void performanceTest(int depth, int p, boolean quiet, boolean startMessage, int threads, PerftTable table, Board.PerftMode mode)
     {
         boolean validPosition = (p >= 0 && p < Data.positions.length);
         
         if (validPosition)
         {
-            if (beta != null && beta.isAlive())
+            if (running())
+            {
                 board.loadFen(Data.positions[p]);
+                search.getTable().clear();
+            }
             else
                 App.build(Data.positions[p]);
         }
 
-        if (beta == null || !beta.isAlive())
+        if (!running())
         {
             System.out.println("Specified position isn't between 0 and 5, and no board is currently active, can't run performance test.");
             return;
         }
 
-        board.getPerftInfo().clear();
+        if (table != null) table.clear();
 
         if (validPosition && startMessage)
             System.out.printf("Performance test, position %d, %s\n", p, Data.positions[p]);
 
         
+        long nodes;
         long beginning = System.currentTimeMillis();
-        int nodes = board.perft(depth, quiet);
+
+        // the divide lines are printed as each root move is counted, a wrong one shows up long before the end of a deep test
+        Consumer<DivideResult> divide = quiet ? null : result -> System.out.printf("%s (%dms, %d nodes/s)\n",
+            result, result.getTimeNanos() / 1_000_000, result.getNodesPerSecond());
+
+        if (threads > 1)
+        {
+            try (ParallelPerft parallelPerft = new ParallelPerft(threads, 1, table, mode)) {
+                nodes = parallelPerft.perft(board, depth, divide);
+            }
+        }
+        else
+            nodes = board.perft(depth, table, mode, divide);
+
         long end = System.currentTimeMillis();
 
-        String info = String.format("depth %2d : %10d possibilities in %10dms", depth, nodes, end - beginning);
+        String info = String.format("depth %2d : %12d possibilities in %10dms (%d nodes/s)", depth, nodes, end - beginning, nodes * 1000 / Math.max(1, end - beginning));
+        String tableInfo = table == null ? null : table.getInfo(); // the parallel run's, before the serial one uses the table
+
+        if (threads > 1)
+        {
+            // same table (emptied) and mode as the parallel run, so the speedup is only the threads'
+            if (table != null) table.clear();
+
+            long serialBeginning = System.currentTimeMillis();
+            board.perft(depth, table, mode);
+            long serialTime = System.currentTimeMillis() - serialBeginning;
+
+            info += String.format(" (%d threads, serial %dms, speedup x%.2f)", threads, serialTime, serialTime / (double) Math.max(1, end - beginning));
+        }
 
         if (validPosition && depth < Data.nodes[p].length)
         {
-            int expectedNodes = Data.nodes[p][depth];
+            long expectedNodes = Data.nodes[p][depth];
             boolean success = expectedNodes == nodes;
             System.out.printf("%s %c %s\n", info, success ? '✅' : '❌', success ? "" : String.format("expected %d nodes", expectedNodes));
         }
         else
             System.out.println(info);
 
-        // Collections.sort(board.getPerftInfo());
+        if (table != null && !quiet)
+            System.out.println(tableInfo);
 
-        for (String s : board.getPerftInfo())
-            System.out.println(s);
+        gamePanel.boardChanged(); // the board may have changed
     }
 
     static void stayOnTop()
@@ -132,9 +227,9 @@ public final class App implements Runnable
 
     static void close()
     {
-        if (sub != null && beta != null && gameFrame != null && gamePanel != null && board != null && beta.isAlive())
+        if (sub != null && gameFrame != null && gamePanel != null && board != null && running())
         {
-            sub.running = false;
+            beta.stop();
             gameFrame.remove(gamePanel);
             gameFrame.dispose();
             board = null;
@@ -145,28 +240,12 @@ public final class App implements Runnable
         }
     }
 
-    @Override
-    public void run()
-    {
-        double timePerFrame = 1000000000/60;
-        long lastFrame = 0;
-
-        while (running)
-        {
-            long now = System.nanoTime();
-            if (now - lastFrame >= timePerFrame) {
-                gamePanel.repaint();
-                lastFrame = now;
-            }
-        }
-    }
-
     static void choosePiece(int rank, int file)
     {
         int square = rank * 8 + file;
 
-        if (square >= 0 && square < 64)
-            gamePanel.setActiveSquare(square);
+        if (square >= 0 && square < 64 && !computerThinking && gamePanel.setActiveSquare(square))
+            computerMove();
     }
 
     static void dragPiece(int x, int y)
@@ -179,7 +258,7 @@ public final class App implements Runnable
     {
         gamePanel.setSlide(false);
         int square = rank * 8 + file;
-        if (square >= 0 && square < 64)
-            gamePanel.putPiece(square);
+        if (square >= 0 && square < 64 && !computerThinking && gamePanel.putPiece(square))
+            computerMove();
     }
 }
@@ -2,6 +2,8 @@ package main;
 
 import java.util.Scanner;
 
+import coregame.Board;
+import coregame.PerftTable;
 import testdata.Data;
 
 public final class Main {
@@ -42,19 +44,30 @@ public final class Main {
             case "perft":
                 try {
                     String position = ask("Position in range [0, " + (Data.positions.length - 1) + "]\nleave the field blank if you're testing the current active board : ");
-                    App.performanceTest(Integer.parseInt(ask("depth : ")), position.isBlank() ? -1 : Integer.parseInt(position), false, true);
+                    int depth = Integer.parseInt(ask("depth : "));
+                    App.performanceTest(depth, position.isBlank() ? -1 : Integer.parseInt(position), false, true, askThreads(), askTable(), askMode());
                 } catch (Exception e) {}
                 break;
             case "allperft":
+                int threads = askThreads();
+                PerftTable table = askTable();
+                Board.PerftMode mode = askMode();
                 for (int p = 0; p < Data.positions.length; p++)
                 {
-                    for (int depth = 1; depth < Data.nodes[p].length; depth++)
+                    for (int depth = 1; depth <= Data.defaultDepth(p); depth++)
                     {
-                        App.performanceTest(depth, p, true, depth == 1);
+                        App.performanceTest(depth, p, true, depth == 1, threads, table, mode);
                     }
                 }
                 App.close();
                 break;
+            case "computer":
+                try {
+                    App.setComputerOpponent(Math.max(0, Long.parseLong(ask("computer thinking time in ms (0 to play without it) : "))));
+                } catch (NumberFormatException e) {
+                    System.out.println("not a number");
+                }
+                break;
             case "quit":
                 App.close();
                 input.close();
@@ -88,8 +101,13 @@ public final class Main {
                         toggle   : Window stays/won't stay on top
 
                         perft    : runs a performance test, if the specified position index is out of range, it runs the performance test on the current board
+                                   with more than one thread, the serial run is timed too to print the speedup
+                                   a hash table size in MB caches the subtrees already counted
+                                   bulk counting only counts the legal moves one depth before the leaves instead of making them
+
+                        allperft : runs all perft up to 100 million nodes (WARNING this might take a long time)
 
-                        allperft : runs all perft (WARNING this might take a long time)
+                        computer : the computer plays the side to move, then answers every move, in the given thinking time
 
                         help     : this command
                         """);
@@ -100,6 +118,23 @@ public final class Main {
         }
     }
 
+    private static int askThreads()
+    {
+        String threads = ask("threads (blank for 1) : ");
+        return threads.isBlank() ? 1 : Math.max(1, Integer.parseInt(threads));
+    }
+
+    private static PerftTable askTable()
+    {
+        String megabytes = ask("hash table size in MB (blank for none) : ");
+        return megabytes.isBlank() ? null : new PerftTable(Integer.parseInt(megabytes), PerftTable.Policy.DEPTH_PREFERRED);
+    }
+
+    private static Board.PerftMode askMode()
+    {
+        return ask("bulk counting at the leaves (y/N) : ").equalsIgnoreCase("y") ? Board.PerftMode.BULK : Board.PerftMode.FULL;
+    }
+
     private static String ask(String message)
     {
         System.out.print(message);
@@ -3,16 +3,26 @@ package main;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.imageio.ImageIO;
 import javax.swing.JPanel;
 
 import coregame.Board;
+import coregame.Move;
+import coregame.MoveList;
 import coregame.Piece;
 
 class Panel extends JPanel{
@@ -24,40 +34,126 @@ class Panel extends JPanel{
         GREEN = new Color(121, 232, 150, 150),
         BLUE = new Color(57, 61, 250, 150);
 
-    private final static BufferedImage[] pieceImages = new BufferedImage[12];
+    private final static int SQUARE = 100; // size of a square in pixels
+
+    // sprites already scaled to a square, indexed by the piece itself ('K', 'p'...), and the empty board drawn once
+    private final static BufferedImage[] pieceImages = new BufferedImage['r' + 1];
+    private final static BufferedImage background;
+
+    private final static ExecutorService analyser = Executors.newVirtualThreadPerTaskExecutor(); // move generation never runs on the event thread
+
     private final App password;
 
     private int lastSquare, x, y;
-    private BufferedImage lastImage;
     private Board board;
-    private ArrayDeque<Integer> moves, opponentMoves;
+    private long moves, opponentMoves; // highlighted squares, bit n for square n
     private boolean attacksHighlight, slide, kingHighlight;
+    private volatile boolean dirty; // something changed since the last frame, the REPL thread can set it too
+    private Rectangle dirtyArea; // only the dragged piece moved, no need to repaint everything
+    private volatile CompletableFuture<long[]> analysis; // where the piece of each square can go, computed in the background after each move
 
     Panel(String fen, App key) throws IllegalArgumentException
     {
         super();
-        setPreferredSize(new Dimension(800, 800));
+        setPreferredSize(new Dimension(8 * SQUARE, 8 * SQUARE));
+        setOpaque(true);
         password = key;
         attacksHighlight = true;
         kingHighlight = false;
         board = new Board(fen);
         lastSquare = -1;
+        boardChanged();
     }
 
     public void setSlide(boolean slide) {
+        if (this.slide != slide) dirty = true; // the piece leaves (or comes back to) its square
         this.slide = slide;
     }
 
     public void setXY(int x, int y) {
+        addDirtyArea(this.x, this.y); // where the dragged piece was
         this.x = x; this.y = y;
+        addDirtyArea(x, y);
     }
 
     public void setAttacksHighlight(boolean attacksHighlight) {
         this.attacksHighlight = attacksHighlight;
+        dirty = true;
     }
 
     public void setKingHighlight(boolean kingHighlight) {
         this.kingHighlight = kingHighlight;
+        dirty = true;
+    }
+
+    /*
+        To call after the board changed : a copy of it is analysed on a virtual thread while the event thread goes on
+    */
+    void boardChanged()
+    {
+        dirty = true;
+        Board snapshot = new Board(board);
+        analysis = CompletableFuture.supplyAsync(() -> analyse(snapshot), analyser);
+    }
+
+    /*
+        Legal moves of the side to move, pseudo legal ones for the other side (what he's threatening), and tells if the game is over
+    */
+    private static long[] analyse(Board snapshot)
+    {
+        long[] targets = new long[64];
+        MoveList moves = new MoveList();
+
+        snapshot.generateLegalMoves(moves);
+
+        for (int i = 0; i < moves.size(); i++)
+            targets[Move.from(moves.get(i))] |= 1L << Move.to(moves.get(i));
+
+        for (int square = 0; square < 64; square++)
+        {
+            if (snapshot.get(square) == 0 || Piece.isWhite(snapshot.get(square)) == snapshot.whitePlaying()) continue;
+
+            ArrayDeque<Integer> opponentTargets = snapshot.getPseudoLegalMoves(square, false, false);
+            if (Piece.removeColorFromData(snapshot.get(square)) == Piece.KING) snapshot.addCastleMove(square, opponentTargets);
+            targets[square] = toMask(opponentTargets);
+        }
+
+        switch (snapshot.gameState(moves)) { // the move list is already there, not generated twice
+            case CHECKMATE -> System.out.println("Checkmate!");
+            case STALEMATE -> System.out.println("Stalemate!");
+            case DRAW -> {
+                if (snapshot.repetitions() >= 2) System.out.println("Draw by threefold repetition.");
+                else if (snapshot.fiftyMoveRule()) System.out.println("Draw by the fifty move rule.");
+                else System.out.println("Draw, nobody can mate anymore.");
+            }
+            case ONGOING -> {}
+        }
+
+        return targets;
+    }
+
+    private void addDirtyArea(int x, int y)
+    {
+        Rectangle area = new Rectangle(x - SQUARE / 2, y - SQUARE / 2, SQUARE, SQUARE);
+        dirtyArea = dirtyArea == null ? area : dirtyArea.union(area);
+    }
+
+    /*
+        Called every frame, an idle board costs nothing and a drag only repaints around the dragged piece
+    */
+    void repaintIfDirty()
+    {
+        if (dirty)
+        {
+            dirty = false;
+            dirtyArea = null;
+            repaint();
+        }
+        else if (dirtyArea != null)
+        {
+            repaint(dirtyArea);
+            dirtyArea = null;
+        }
     }
 
     public Board getBoard(App key) {
@@ -67,123 +163,152 @@ class Panel extends JPanel{
     @Override
     protected void paintComponent(Graphics g)
     {
-        super.paintComponent(g);
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
 
-        for (int file = 0; file < 8; file++)
+        g.drawImage(background, 0, 0, null);
+
+        // only the squares touching the area being repainted
+        int firstFile = Math.max(0, clip.x / SQUARE), lastFile = Math.min(7, (clip.x + clip.width - 1) / SQUARE);
+        int firstRank = Math.max(0, clip.y / SQUARE), lastRank = Math.min(7, (clip.y + clip.height - 1) / SQUARE);
+
+        for (int file = firstFile; file <= lastFile; file++)
         {
-            for (int rank = 0; rank < 8; rank++)
+            for (int rank = firstRank; rank <= lastRank; rank++)
             {
-                g.setColor((rank + file) % 2 == 0 ? BEIGE : BROWN);
-                g.fillRect(file * 100, rank * 100, 100, 100);
-             
                 int square = rank * 8 + file;
-                int piece = board.get(square);
-                BufferedImage image = evalImage(piece);
+                long bit = 1L << square;
 
                 if (slide && square == lastSquare) {
                     continue;
                 }
 
-                g.drawImage(image, file * 100, rank * 100, 100, 100, null);
+                int piece = board.get(square);
+                if (piece != 0) g.drawImage(pieceImages[piece], file * SQUARE, rank * SQUARE, null);
 
-                if (attacksHighlight && moves != null && moves.contains(square))
+                if (attacksHighlight && (moves & bit) != 0)
                 {
                     g.setColor(RED);
-                    g.fillRect(file * 100, rank * 100, 100, 100);
+                    g.fillRect(file * SQUARE, rank * SQUARE, SQUARE, SQUARE);
                 }
 
-                if (attacksHighlight && opponentMoves != null && opponentMoves.contains(square))
+                if (attacksHighlight && (opponentMoves & bit) != 0)
                 {
                     g.setColor(BLUE);
-                    g.fillRect(file * 100, rank * 100, 100, 100);
+                    g.fillRect(file * SQUARE, rank * SQUARE, SQUARE, SQUARE);
                 }
 
                 if (kingHighlight && (board.getBlackKingSquare() == square || board.getWhiteKingSquare() == square))
                 {
                     g.setColor(GREEN);
-                    g.fillRect(file * 100, rank * 100, 100, 100);
+                    g.fillRect(file * SQUARE, rank * SQUARE, SQUARE, SQUARE);
                 }
             }
         }
 
-        if (slide && lastSquare != -1) {
-            if (lastImage == null) lastImage = evalImage(board.get(lastSquare));
-            g.drawImage(lastImage, x - 50, y - 50, 100, 100, null);
-        }
-
-        if (!slide) {
-            lastImage = null;
+        if (slide && lastSquare != -1 && board.get(lastSquare) != 0) {
+            g.drawImage(pieceImages[board.get(lastSquare)], x - SQUARE / 2, y - SQUARE / 2, null);
         }
     }
 
-    void setActiveSquare(int square)
+    /*
+        Returns true if a move was played
+    */
+    boolean setActiveSquare(int square)
     {
-        if (board.get(square) == 0 && moves != null && moves.contains(square))
-            putPiece(square);
+        dirty = true;
+
+        if (board.get(square) == 0 && (moves & 1L << square) != 0)
+            return putPiece(square);
 
         else if (board.get(square) == 0)
             callClear();
         else
         {
+            long[] targets = analysis.getNow(null);
+            if (targets == null) return false; // still being analysed, the event thread doesn't wait for it : the click is ignored
+
             if (Piece.isWhite(board.get(square)) == board.whitePlaying()) {
-                moves = board.getLegalMoves(square, false);
+                moves = targets[square];
                 lastSquare = square;
             }
-            else if (moves == null || !moves.contains(square))
+            else if ((moves & 1L << square) == 0)
             {
-                opponentMoves = board.getPseudoLegalMoves(square, false, false);
-                if (Piece.removeColorFromData(board.get(square)) == Piece.KING) board.addCastleMove(square, opponentMoves);
+                opponentMoves = targets[square];
             }
         }
+
+        return false;
     }
 
     void callClear()
     {
-        opponentMoves = null;
-        moves = null;
+        dirty = true;
+        opponentMoves = 0;
+        moves = 0;
         lastSquare = -1;
     }
 
-    void putPiece(int square)
+    /*
+        Returns true if a move was played
+    */
+    boolean putPiece(int square)
     {
-        if (moves != null && lastSquare != -1 && moves.contains(square) && Piece.isWhite(board.get(lastSquare)) == board.whitePlaying())
+        dirty = true;
+
+        if (lastSquare != -1 && (moves & 1L << square) != 0 && Piece.isWhite(board.get(lastSquare)) == board.whitePlaying())
         {
             board.makeMove(lastSquare, square, Piece.QUEEN - (Piece.isWhite(board.get(lastSquare)) ? Piece.WHITE : Piece.BLACK));
             callClear();
+            boardChanged();
+            return true;
         }
 
-        if (board.checkMate())
-            System.out.println("Checkmate!");
+        return false;
     }
 
-    private BufferedImage evalImage(int piece)
+    /*
+        Plays a move that didn't come from the mouse, the computer's for instance
+    */
+    void playMove(int move)
     {
-        if (piece == 0) {
-            return null;
-        }
+        board.makeMove(move);
+        callClear();
+        boardChanged();
+    }
+
+    private static long toMask(Iterable<Integer> squares)
+    {
+        long mask = 0;
 
-        int d = 6;
+        for (int square : squares)
+            mask |= 1L << square;
 
-        if (Character.isUpperCase(piece)) {
-            piece += Piece.WHITE;
-            d = 0;
-        }
+        return mask;
+    }
 
-        int index = switch (piece) {
-            case Piece.KING -> 0;
-            case Piece.QUEEN -> 1;
-            case Piece.BISHOP -> 2;
-            case Piece.KNIGHT -> 3;
-            case Piece.ROOK -> 4;
-            case Piece.PAWN -> 5;
-            default -> -1;
-        };
-
-        if (index == -1) {
-            return null;
-        }
+    /*
+        An image in the screen's own format so drawing it is a plain copy, or a regular one without a screen
+    */
+    private static BufferedImage compatibleImage(int width, int height, int transparency)
+    {
+        if (GraphicsEnvironment.isHeadless())
+            return new BufferedImage(width, height, transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration().createCompatibleImage(width, height, transparency);
+    }
+
+    private static BufferedImage scaled(BufferedImage sprite)
+    {
+        BufferedImage image = compatibleImage(SQUARE, SQUARE, Transparency.TRANSLUCENT);
+        Graphics2D g = image.createGraphics();
+
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(sprite, 0, 0, SQUARE, SQUARE, null);
+        g.dispose();
 
-        return pieceImages[index + d];
+        return image;
     }
 
     static
@@ -192,14 +317,29 @@ class Panel extends JPanel{
             BufferedImage spriteSheet = ImageIO.read(new File("res/sprites.svg.png"));
             int pieceWidth = 320;
             int pieceHeight = 320;
+            String order = "KQBNRP"; // order of the sprites on the sheet, white on the first row and black on the second
 
             for (int i = 0; i < 6; i++) {
-                pieceImages[i] = spriteSheet.getSubimage(i * pieceWidth, 0, pieceWidth, pieceHeight);
-                pieceImages[i + 6] = spriteSheet.getSubimage(i * pieceWidth, pieceHeight, pieceWidth, pieceHeight);
+                pieceImages[order.charAt(i)] = scaled(spriteSheet.getSubimage(i * pieceWidth, 0, pieceWidth, pieceHeight));
+                pieceImages[order.charAt(i) + Piece.WHITE] = scaled(spriteSheet.getSubimage(i * pieceWidth, pieceHeight, pieceWidth, pieceHeight));
             }
 
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+
+        background = compatibleImage(8 * SQUARE, 8 * SQUARE, Transparency.OPAQUE);
+        Graphics g = background.getGraphics();
+
+        for (int file = 0; file < 8; file++)
+        {
+            for (int rank = 0; rank < 8; rank++)
+            {
+                g.setColor((rank + file) % 2 == 0 ? BEIGE : BROWN);
+                g.fillRect(file * SQUARE, rank * SQUARE, SQUARE, SQUARE);
+            }
+        }
+
+        g.dispose();
     }
 }
@@ -0,0 +1,241 @@
+package main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import coregame.Board;
+import coregame.DivideResult;
+import coregame.ParallelPerft;
+import coregame.PerftTable;
+import testdata.Data;
+
+/*
+    Runs performance tests without the GUI, for build agents and scripts :
+
+    java main/Perft [--position p | --fen fen] [--depth d] [--threads n] [--hash MB] [--format csv|json] [--bulk]
+                    [--divide [--sort] [--reference file]]
+
+    Without a position every position of testdata.Data is tested, without a depth every depth Data knows for it up to
+    Data.DEFAULT_MAX_NODES (the deeper ones take minutes each, --depth runs them).
+    With --bulk the legal moves one depth before the leaves are counted instead of made.
+    Prints one CSV line (or one JSON object per line) per test, and exits with 1 if a node count doesn't match Data, 2 on bad arguments.
+
+    --divide counts one position at one depth and prints each root move with its nodes, time and speed as soon as it's counted
+    (in the order they finish), or all of them sorted by move at the end with --sort. With --reference, the lines are compared
+    to a divide of another engine ("e2e4: 20" per line, what perft and go perft print) and a wrong move is flagged right away
+*/
+public final class Perft
+{
+    private static final Pattern divideLine = Pattern.compile("\\s*([a-h][1-8][a-h][1-8][nbrq]?):?\\s+(\\d+)\\b.*");
+
+    private Perft() {}
+
+    public static void main(String[] args)
+    {
+        int position = -1, depth = -1, threads = 1, hash = 0;
+        String fen = null, format = "csv";
+        Board.PerftMode mode = Board.PerftMode.FULL;
+        boolean divide = false, sort = false;
+        Map<String, Long> reference = null;
+
+        try {
+            for (int i = 0; i < args.length; i++)
+            {
+                switch (args[i]) {
+                    case "--position" -> {
+                        position = Integer.parseInt(args[++i]);
+                        if (position < 0) throw new IllegalArgumentException("bad position"); // -1 is only for none given
+                    }
+                    case "--fen" -> fen = args[++i];
+                    case "--depth" -> depth = Integer.parseInt(args[++i]);
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    case "--hash" -> hash = Integer.parseInt(args[++i]);
+                    case "--format" -> format = args[++i];
+                    case "--bulk" -> mode = Board.PerftMode.BULK;
+                    case "--divide" -> divide = true;
+                    case "--sort" -> sort = true;
+                    case "--reference" -> reference = readDivide(Path.of(args[++i]));
+                    default -> throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+            }
+
+            if (position >= Data.positions.length || (fen != null && position != -1)) throw new IllegalArgumentException("bad position");
+            if (fen != null && depth < 1) throw new IllegalArgumentException("a depth is needed with --fen");
+            if (threads < 1 || !(format.equals("csv") || format.equals("json"))) throw new IllegalArgumentException("bad threads or format");
+            if (divide ? (fen == null && position == -1) || depth < 1 : sort || reference != null)
+                throw new IllegalArgumentException("--divide needs a position and a depth, --sort and --reference need --divide");
+
+            if (fen != null) new Board(fen); // throws right away if the fen is wrong
+        } catch (RuntimeException | IOException e) {
+            System.err.println(e.getMessage() == null ? "bad arguments" : e.getMessage());
+            System.err.println("usage : java main/Perft [--position p | --fen fen] [--depth d] [--threads n] [--hash MB] [--format csv|json] [--bulk] [--divide [--sort] [--reference file]]");
+            System.exit(2);
+        }
+
+        PerftTable table = hash > 0 ? new PerftTable(hash, PerftTable.Policy.DEPTH_PREFERRED) : null;
+        boolean allPassed = true;
+
+        if (divide)
+        {
+            long expected = fen == null && depth < Data.nodes[position].length ? Data.nodes[position][depth] : -1;
+            System.exit(divide(fen == null ? Data.positions[position] : fen, depth, expected, threads, table, mode, sort, reference) ? 0 : 1);
+        }
+
+        if (format.equals("csv"))
+            System.out.println("position,fen,depth,nodes,expected,time_ms,nps,result");
+
+        if (fen != null)
+            allPassed = run(-1, fen, depth, -1, threads, table, mode, format);
+
+        for (int p = 0; p < Data.positions.length && fen == null; p++)
+        {
+            if (position != -1 && p != position) continue;
+
+            int firstDepth = depth == -1 ? 1 : depth;
+            int lastDepth = depth == -1 ? Data.defaultDepth(p) : depth;
+
+            for (int d = firstDepth; d <= lastDepth; d++)
+                allPassed &= run(p, Data.positions[p], d, d < Data.nodes[p].length ? Data.nodes[p][d] : -1, threads, table, mode, format);
+        }
+
+        System.exit(allPassed ? 0 : 1);
+    }
+
+    /*
+        One test, printed as soon as it's done. expected is -1 if unknown, returns false on a mismatch
+    */
+    private static boolean run(int position, String fen, int depth, long expected, int threads, PerftTable table, Board.PerftMode mode, String format)
+    {
+        Board board = new Board(fen);
+        long nodes;
+
+        if (table != null) table.clear();
+
+        long beginning = System.nanoTime();
+
+        if (threads > 1)
+        {
+            try (ParallelPerft parallelPerft = new ParallelPerft(threads, 1, table, mode)) {
+                nodes = parallelPerft.perft(board, depth, null);
+            }
+        }
+        else
+            nodes = board.perft(depth, table, mode);
+
+        long time = System.nanoTime() - beginning;
+        long nps = (long) (nodes * 1e9 / Math.max(1, time));
+        String result = expected == -1 ? "unknown" : (expected == nodes ? "pass" : "fail");
+
+        if (format.equals("csv"))
+            System.out.printf("%d,%s,%d,%d,%d,%d,%d,%s%n", position, fen, depth, nodes, expected, time / 1_000_000, nps, result);
+        else
+            System.out.printf("{\"position\":%d,\"fen\":\"%s\",\"depth\":%d,\"nodes\":%d,\"expected\":%d,\"time_ms\":%d,\"nps\":%d,\"result\":\"%s\"}%n",
+                position, fen, depth, nodes, expected, time / 1_000_000, nps, result);
+
+        return !result.equals("fail");
+    }
+
+    /*
+        One divide, every root move printed as it's counted (or at the end, sorted) and checked against the reference if there's one.
+        Returns false if the total doesn't match expected (-1 if unknown) or a move doesn't match the reference
+    */
+    private static boolean divide(String fen, int depth, long expected, int threads, PerftTable table, Board.PerftMode mode, boolean sort, Map<String, Long> reference)
+    {
+        Board board = new Board(fen);
+        List<DivideResult> results = new ArrayList<>();
+        Map<String, Long> missing = reference == null ? new LinkedHashMap<>() : new LinkedHashMap<>(reference);
+        int[] differences = { 0 };
+
+        System.out.printf("divide, depth %d, %s%n", depth, fen);
+
+        long beginning = System.nanoTime();
+        long nodes;
+
+        Consumer<DivideResult> listener = result -> {
+            String difference = difference(result, reference);
+
+            missing.remove(result.getUciMove());
+            if (!difference.isEmpty()) differences[0]++;
+
+            if (sort) results.add(result);
+
+            // a wrong move is printed right away even when sorting, not hours later with the others
+            if (!sort || !difference.isEmpty()) printDivideLine(result, difference);
+        };
+
+        if (threads > 1)
+        {
+            try (ParallelPerft parallelPerft = new ParallelPerft(threads, 1, table, mode)) {
+                nodes = parallelPerft.perft(board, depth, listener);
+            }
+        }
+        else
+            nodes = board.perft(depth, table, mode, listener);
+
+        long time = System.nanoTime() - beginning;
+
+        if (sort)
+        {
+            results.sort(DivideResult.BY_MOVE);
+
+            for (DivideResult result : results)
+                printDivideLine(result, difference(result, reference));
+        }
+
+        for (Map.Entry<String, Long> move : missing.entrySet())
+            System.out.printf("%s: %d  <- only in the reference%n", move.getKey(), move.getValue());
+
+        differences[0] += missing.size();
+
+        System.out.printf("%nNodes searched: %d%ntime %dms, %d nodes/s%n", nodes, time / 1_000_000, (long) (nodes * 1e9 / Math.max(1, time)));
+
+        if (expected != -1) System.out.printf("expected %d, %s%n", expected, expected == nodes ? "pass" : "fail");
+        if (reference != null) System.out.printf("%d moves differ from the reference%n", differences[0]);
+
+        return (expected == -1 || expected == nodes) && differences[0] == 0;
+    }
+
+    private static void printDivideLine(DivideResult result, String difference)
+    {
+        System.out.printf("%-14s %10dms %14d nodes/s%s%n", result, result.getTimeNanos() / 1_000_000, result.getNodesPerSecond(), difference);
+    }
+
+    /*
+        What's wrong with a root move compared to the reference, blank if nothing is (or there's no reference)
+    */
+    private static String difference(DivideResult result, Map<String, Long> reference)
+    {
+        if (reference == null) return "";
+
+        Long referenceNodes = reference.get(result.getUciMove());
+
+        if (referenceNodes == null) return "  <- not in the reference";
+        return referenceNodes == result.getNodes() ? "" : "  <- expected " + referenceNodes;
+    }
+
+    /*
+        move -> nodes out of a divide printed by any engine, the lines that don't start with "e2e4: 20" (or "e2e4 20") are skipped
+    */
+    private static Map<String, Long> readDivide(Path file) throws IOException
+    {
+        Map<String, Long> divide = new LinkedHashMap<>();
+
+        for (String line : Files.readAllLines(file))
+        {
+            Matcher matcher = divideLine.matcher(line);
+            if (matcher.matches()) divide.put(matcher.group(1), Long.parseLong(matcher.group(2)));
+        }
+
+        if (divide.isEmpty()) throw new IOException("no divide line in " + file);
+
+        return divide;
+    }
+}
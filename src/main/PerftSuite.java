@@ -0,0 +1,176 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import coregame.Board;
+
+/*
+    Runs a perft suite out of an EPD file, one position per line followed by its node counts :
+
+    rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1 ;D1 20 ;D2 400 ;D3 8902
+
+    java main/PerftSuite <file.epd> [--threads n] [--max-depth d] [--fail-fast] [--bulk]
+
+    The file is read line by line while the positions are counted on a pool of threads, so it can be as big as needed.
+    --bulk counts the legal moves one depth before the leaves instead of making them.
+    Prints one line per position as it finishes, then a summary. Exits with 1 if a count is wrong, 2 on bad arguments
+*/
+public final class PerftSuite
+{
+    private static final String USAGE = "usage : java main/PerftSuite <file.epd> [--threads n] [--max-depth d] [--fail-fast] [--bulk]";
+
+    private static final AtomicInteger passed = new AtomicInteger(), failed = new AtomicInteger();
+    private static final AtomicLong totalNodes = new AtomicLong();
+    private static final AtomicBoolean stopping = new AtomicBoolean(); // a failure with --fail-fast, no new position is started
+
+    private PerftSuite() {}
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        Path file = null;
+        int threads = Runtime.getRuntime().availableProcessors(), maxDepth = Integer.MAX_VALUE;
+        boolean failFast = false;
+        Board.PerftMode mode = Board.PerftMode.FULL;
+
+        try {
+            for (int i = 0; i < args.length; i++)
+            {
+                switch (args[i]) {
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    case "--max-depth" -> maxDepth = Integer.parseInt(args[++i]);
+                    case "--fail-fast" -> failFast = true;
+                    case "--bulk" -> mode = Board.PerftMode.BULK;
+                    default -> file = Path.of(args[i]);
+                }
+            }
+
+            if (file == null || threads < 1 || maxDepth < 1) throw new IllegalArgumentException();
+        } catch (RuntimeException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Semaphore queued = new Semaphore(threads * 4); // the reader stays a few lines ahead of the threads, not the whole file
+        long beginning = System.nanoTime();
+        int lineNumber = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII))
+        {
+            String line;
+
+            while ((line = reader.readLine()) != null && !stopping.get())
+            {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) continue;
+
+                String epd = line;
+                int number = lineNumber, depthLimit = maxDepth;
+                boolean stopOnFailure = failFast;
+                Board.PerftMode perftMode = mode;
+
+                queued.acquire();
+                pool.execute(() -> {
+                    try {
+                        if (!stopping.get()) run(number, epd, depthLimit, stopOnFailure, perftMode);
+                    } catch (RuntimeException e) {
+                        report(number, "FAIL", "crashed, " + e, stopOnFailure); // an executor would swallow it, the line wouldn't count
+                    } finally {
+                        queued.release();
+                    }
+                });
+            }
+        } catch (IOException e) {
+            System.err.println("can't read " + file + " : " + e);
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+        long time = System.nanoTime() - beginning;
+
+        System.out.printf("%d positions, %d passed, %d failed%s, %d nodes in %dms (%d nodes/s on %d threads)\n",
+            passed.get() + failed.get(), passed.get(), failed.get(), stopping.get() ? " (stopped at the first failure)" : "",
+            totalNodes.get(), time / 1_000_000, (long) (totalNodes.get() * 1e9 / Math.max(1, time)), threads);
+
+        System.exit(failed.get() == 0 ? 0 : 1);
+    }
+
+    /*
+        Every depth of one line up to maxDepth, stopping at the first wrong count
+    */
+    private static void run(int lineNumber, String epd, int maxDepth, boolean failFast, Board.PerftMode mode)
+    {
+        String[] parts = epd.split(";");
+        String fen = parts[0].trim();
+
+        if (fen.split(" ").length == 4) fen += " 0 1"; // EPD positions often come without the clocks
+
+        Board board;
+        List<long[]> expected = new ArrayList<>(); // { depth, nodes }
+
+        try {
+            board = new Board(fen);
+
+            for (int i = 1; i < parts.length; i++)
+            {
+                String[] annotation = parts[i].trim().split("\\s+");
+                if (annotation.length != 2 || !annotation[0].startsWith("D")) continue; // not a node count
+
+                int depth = Integer.parseInt(annotation[0].substring(1));
+                if (depth <= maxDepth) expected.add(new long[]{ depth, Long.parseLong(annotation[1]) });
+            }
+        } catch (IllegalArgumentException e) {
+            report(lineNumber, "FAIL", "can't be read, " + e.getMessage(), failFast);
+            return;
+        }
+
+        long nodes = 0, beginning = System.nanoTime();
+        int deepest = 0;
+
+        for (long[] depthNodes : expected)
+        {
+            long counted = board.perft((int) depthNodes[0], null, mode);
+            nodes += counted;
+
+            if (counted != depthNodes[1])
+            {
+                totalNodes.addAndGet(nodes);
+                report(lineNumber, "FAIL", String.format("depth %d : %d nodes, expected %d (%s)", depthNodes[0], counted, depthNodes[1], fen), failFast);
+                return;
+            }
+
+            deepest = (int) depthNodes[0];
+        }
+
+        long time = System.nanoTime() - beginning;
+        totalNodes.addAndGet(nodes);
+        report(lineNumber, "pass", String.format("up to depth %d, %d nodes in %dms (%d nodes/s)", deepest, nodes, time / 1_000_000, (long) (nodes * 1e9 / Math.max(1, time))), failFast);
+    }
+
+    private static void report(int lineNumber, String result, String details, boolean failFast)
+    {
+        if (result.equals("pass")) passed.incrementAndGet();
+        else {
+            failed.incrementAndGet();
+            if (failFast) stopping.set(true);
+        }
+
+        System.out.printf("line %d %s %s\n", lineNumber, result, details);
+    }
+}
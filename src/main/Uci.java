@@ -0,0 +1,349 @@
+package main;
+
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import coregame.Board;
+import coregame.Move;
+import coregame.MoveList;
+import coregame.ParallelPerft;
+import coregame.search.Limits;
+import coregame.search.ParallelSearch;
+import coregame.search.SearchInfo;
+import coregame.search.TranspositionTable;
+import testdata.Data;
+
+/*
+    Universal Chess Interface over stdin/stdout, so the engine runs under chess GUIs and tournament managers :
+
+    java main/Uci
+
+    Understands uci, isready, ucinewgame, setoption (Hash, Threads), position (startpos or fen, then moves), go (depth, nodes,
+    movetime, wtime, btime, winc, binc, movestogo, infinite, ponder, perft), stop, ponderhit, perft and quit. Searches and perfts
+    run on a worker thread, this one keeps reading so stop is handled right away. After go infinite or go ponder, bestmove
+    only comes once stop (or ponderhit) is received, even if the search is over before
+*/
+public final class Uci
+{
+    private static final String NAME = "java-chess";
+
+    private static final int
+        DEFAULT_HASH = 16,
+        MAX_HASH = 4096,
+        MAX_THREADS = 256,
+        MOVE_OVERHEAD = 30; // in ms, kept aside for the communication with the GUI
+
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor();
+
+    private static Board board = new Board(Data.positions[0]);
+    private static int hash = DEFAULT_HASH, threads = 1;
+    private static ParallelSearch search = new ParallelSearch(threads, new TranspositionTable(hash));
+    private static Future<?> running;
+
+    private static volatile CountDownLatch bestMoveHeld = new CountDownLatch(0); // released by stop, or ponderhit
+    private static volatile long ponderTime; // thinking time once the ponder move is played, 0 when not pondering
+    private static volatile int searches; // a ponderhit timer only stops the search it was started for
+
+    private Uci() {}
+
+    public static void main(String[] args)
+    {
+        Scanner input = new Scanner(System.in);
+
+        while (input.hasNextLine())
+        {
+            String line = input.nextLine().trim();
+
+            if (line.equals("quit")) break;
+            if (!line.isEmpty()) eval(line.split("\\s+"));
+        }
+
+        waitForWorker();
+        search.close();
+        worker.shutdown();
+    }
+
+    private static void eval(String[] command)
+    {
+        switch (command[0]) {
+            case "uci" -> {
+                System.out.println("id name " + NAME);
+                System.out.println("id author nanthasoru");
+                System.out.println("option name Hash type spin default " + DEFAULT_HASH + " min 1 max " + MAX_HASH);
+                System.out.println("option name Threads type spin default 1 min 1 max " + MAX_THREADS);
+                System.out.println("uciok");
+            }
+            case "isready" -> System.out.println("readyok");
+            case "ucinewgame" -> {
+                waitForWorker();
+                search.getTable().clear();
+            }
+            case "setoption" -> setOption(command);
+            case "position" -> {
+                waitForWorker();
+                position(command);
+            }
+            case "go" -> {
+                waitForWorker();
+
+                if (command.length > 1 && command[1].equals("perft")) perft(command, 2);
+                else go(command);
+            }
+            case "perft" -> {
+                waitForWorker();
+                perft(command, 1);
+            }
+            case "stop" -> {
+                search.stop();
+                bestMoveHeld.countDown();
+            }
+            case "ponderhit" -> ponderHit();
+            case "d" -> System.out.println(board.getFen());
+            default -> System.out.println("info string unknown command " + command[0]);
+        }
+    }
+
+    /*
+        setoption name Hash value 64, the table and threads are only rebuilt between two searches
+    */
+    private static void setOption(String[] command)
+    {
+        if (command.length < 5 || !command[1].equals("name") || !command[3].equals("value")) return;
+
+        waitForWorker();
+
+        try {
+            int value = Integer.parseInt(command[4]);
+
+            switch (command[2].toLowerCase()) {
+                case "hash" -> hash = Math.max(1, Math.min(MAX_HASH, value));
+                case "threads" -> threads = Math.max(1, Math.min(MAX_THREADS, value));
+                default -> {
+                    System.out.println("info string unknown option " + command[2]);
+                    return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("info string bad value " + command[4]);
+            return;
+        }
+
+        search.close();
+        search = new ParallelSearch(threads, new TranspositionTable(hash));
+    }
+
+    /*
+        position startpos moves e2e4 e7e5, or position fen <6 fields> moves ...
+    */
+    private static void position(String[] command)
+    {
+        int i = 1;
+        String fen;
+
+        if (command.length > 1 && command[1].equals("startpos")) {
+            fen = Data.positions[0];
+            i = 2;
+        }
+        else if (command.length > 7 && command[1].equals("fen")) {
+            fen = String.join(" ", command[2], command[3], command[4], command[5], command[6], command[7]);
+            i = 8;
+        }
+        else {
+            System.out.println("info string bad position command");
+            return;
+        }
+
+        try {
+            board.loadFen(fen);
+        } catch (IllegalArgumentException e) {
+            System.out.println("info string bad fen " + fen);
+            board.loadFen(Data.positions[0]);
+            return;
+        }
+
+        if (i < command.length && command[i].equals("moves"))
+        {
+            MoveList moves = new MoveList();
+
+            for (i++; i < command.length; i++)
+            {
+                int move = find(moves, command[i]);
+
+                if (move == 0) {
+                    System.out.println("info string illegal move " + command[i]);
+                    return;
+                }
+
+                board.makeMove(move);
+            }
+        }
+    }
+
+    /*
+        The legal move written notation (e2e4, e7e8q), 0 if there's none
+    */
+    private static int find(MoveList moves, String notation)
+    {
+        board.generateLegalMoves(moves);
+
+        for (int i = 0; i < moves.size(); i++)
+            if (Move.toString(moves.get(i)).equals(notation)) return moves.get(i);
+
+        return 0;
+    }
+
+    private static void go(String[] command)
+    {
+        int depth = 0, movesToGo = 0;
+        long nodes = 0, moveTime = 0, whiteTime = -1, blackTime = -1, whiteIncrement = 0, blackIncrement = 0;
+        boolean infinite = false, ponder = false;
+
+        try {
+            for (int i = 1; i < command.length; i++)
+            {
+                switch (command[i]) {
+                    case "depth" -> depth = Integer.parseInt(command[++i]);
+                    case "nodes" -> nodes = Long.parseLong(command[++i]);
+                    case "movetime" -> moveTime = Long.parseLong(command[++i]);
+                    case "wtime" -> whiteTime = Long.parseLong(command[++i]);
+                    case "btime" -> blackTime = Long.parseLong(command[++i]);
+                    case "winc" -> whiteIncrement = Long.parseLong(command[++i]);
+                    case "binc" -> blackIncrement = Long.parseLong(command[++i]);
+                    case "movestogo" -> movesToGo = Integer.parseInt(command[++i]);
+                    case "infinite" -> infinite = true;
+                    case "ponder" -> ponder = true;
+                    default -> {} // searchmoves, mate... not supported, searched like without them
+                }
+            }
+        } catch (RuntimeException e) {
+            System.out.println("info string bad go command");
+            return;
+        }
+
+        long time = board.whitePlaying() ? whiteTime : blackTime;
+        long increment = board.whitePlaying() ? whiteIncrement : blackIncrement;
+
+        // on a clock, a part of what's left so there's still time for the next moves
+        if (moveTime == 0 && time >= 0)
+            moveTime = Math.max(1, Math.min(time / (movesToGo > 0 ? movesToGo + 1 : 30) + increment * 3 / 4, time - MOVE_OVERHEAD));
+        else if (moveTime > 0)
+            moveTime = Math.max(1, moveTime - MOVE_OVERHEAD);
+
+        // pondering, the clock only starts at ponderhit : until then the search goes on like an infinite one
+        Limits limits = new Limits(depth, nodes, infinite || ponder ? 0 : moveTime, infinite || ponder);
+        Board position = new Board(board);
+        CountDownLatch held = new CountDownLatch(limits.isInfinite() ? 1 : 0);
+
+        ponderTime = ponder ? moveTime : 0;
+        bestMoveHeld = held;
+        searches++;
+        search.resume(); // here and not on the worker, a stop right after go could come before the worker starts
+
+        running = worker.submit(() -> {
+            SearchInfo best = search.search(position, limits, info -> System.out.println("info " + info + " hashfull " + search.getTable().getUsage()));
+
+            try {
+                held.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (best == null || best.getBestMove() == 0) {
+                System.out.println("bestmove 0000"); // mated or stalemate, there's nothing to play
+                return;
+            }
+
+            int[] principalVariation = best.getPrincipalVariation();
+            System.out.println("bestmove " + Move.toString(best.getBestMove()) + (principalVariation.length > 1 ? " ponder " + Move.toString(principalVariation[1]) : ""));
+        });
+    }
+
+    /*
+        The ponder move was played : the search goes on, but now on the clock go ponder came with
+    */
+    private static void ponderHit()
+    {
+        long time = ponderTime;
+        int pondered = searches;
+
+        ponderTime = 0;
+        bestMoveHeld.countDown();
+
+        if (time > 0)
+        {
+            Thread.ofVirtual().start(() -> {
+                try {
+                    Thread.sleep(time);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (searches == pondered) search.stop();
+            });
+        }
+    }
+
+    /*
+        perft <depth> or go perft <depth>, the depth being command[i]
+    */
+    private static void perft(String[] command, int i)
+    {
+        try {
+            int depth = Integer.parseInt(command[i]);
+            if (depth < 0) throw new IllegalArgumentException();
+
+            perft(depth);
+        } catch (RuntimeException e) {
+            System.out.println("info string bad perft command");
+        }
+    }
+
+    /*
+        Divide on the worker thread, on as many threads as the Threads option
+    */
+    private static void perft(int depth)
+    {
+        Board position = new Board(board);
+
+        running = worker.submit(() -> {
+            long beginning = System.currentTimeMillis();
+            long nodes;
+
+            // one line per root move as soon as it's counted
+            if (threads > 1)
+            {
+                try (ParallelPerft parallelPerft = new ParallelPerft(threads, 1, null, Board.PerftMode.BULK)) {
+                    nodes = parallelPerft.perft(position, depth, System.out::println);
+                }
+            }
+            else
+                nodes = position.perft(depth, null, Board.PerftMode.BULK, System.out::println);
+
+            long time = System.currentTimeMillis() - beginning;
+
+            System.out.printf("\nNodes searched: %d\ntime %dms, %d nodes/s\n", nodes, time, nodes * 1000 / Math.max(1, time));
+        });
+    }
+
+    /*
+        A new search or position only once the running one printed its result, it's stopped first so an infinite one ends too
+    */
+    private static void waitForWorker()
+    {
+        if (running == null) return;
+
+        search.stop();
+        bestMoveHeld.countDown();
+
+        try {
+            running.get();
+        } catch (Exception e) {
+            System.out.println("info string " + e.getCause());
+        }
+
+        running = null;
+    }
+}
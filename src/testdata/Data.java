@@ -1,6 +1,21 @@
 package testdata;
 
 public class Data {
+
+    public static final long DEFAULT_MAX_NODES = 100_000_000; // the deeper counts take minutes each, they're only run when asked for
+
+    /*
+        Deepest depth of nodes[p] under DEFAULT_MAX_NODES, the one tests go up to when no depth is given
+    */
+    public static int defaultDepth(int p)
+    {
+        int depth = 1;
+
+        while (depth + 1 < nodes[p].length && nodes[p][depth + 1] <= DEFAULT_MAX_NODES)
+            depth++;
+
+        return depth;
+    }
     
     public static final String[] positions = // used in App.performanceTest()
     {
@@ -19,7 +34,7 @@ public class Data {
         "6k1/5P2/8/8/8/8/8/7K w - - 0 1"
     };
 
-    public static final int[][] nodes =
+    public static final long[][] nodes =
     {
         // Official nodes number from chesswiki
         { // positions[0]
@@ -28,7 +43,9 @@ public class Data {
             400, // depth = 2 etc...
             8_902,
             197_281,
-            4_865_609 // depth 5
+            4_865_609, // depth 5
+            119_060_324,
+            3_195_901_860L // doesn't fit in an int anymore
         },
         {
             1,
@@ -36,7 +53,8 @@ public class Data {
             2_039,
             97_862,
             4_085_603,
-            193_690_690
+            193_690_690,
+            8_031_647_685L
         },
         {
             1,